@@ -11,6 +11,7 @@ import android.view.ViewGroup;
 import android.widget.ImageView;
 
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.glide.PhonographColoredTarget;
 import com.kabouzeid.gramophone.glide.SongGlideRequest;
@@ -132,6 +133,8 @@ public class AlbumCoverPagerAdapter extends CustomFragmentStatePagerAdapter {
             SongGlideRequest.Builder.from(Glide.with(this), song)
                     .checkIgnoreMediaStore(getActivity())
                     .generatePalette(getActivity()).build()
+                    // the player cover goes before any list cells that are still loading
+                    .priority(Priority.HIGH)
                     .into(new PhonographColoredTarget(albumCover) {
                         @Override
                         public void onColorReady(int color) {
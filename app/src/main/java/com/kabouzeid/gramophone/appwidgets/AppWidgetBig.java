@@ -12,6 +12,7 @@ import android.text.TextUtils;
 import android.view.View;
 import android.widget.RemoteViews;
 
+import com.bumptech.glide.BitmapRequestBuilder;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.animation.GlideAnimation;
 import com.bumptech.glide.request.target.SimpleTarget;
@@ -86,8 +87,7 @@ public class AppWidgetBig extends BaseAppWidget {
         linkButtons(service, appWidgetView);
 
         // Load the album cover async and push the update on completion
-        Point p = Util.getScreenSize(service);
-        final int widgetImageSize = Math.min(p.x, p.y);
+        final int widgetImageSize = getAlbumArtSize(service);
         final Context appContext = service.getApplicationContext();
         service.runOnUiThread(new Runnable() {
             @Override
@@ -95,9 +95,7 @@ public class AppWidgetBig extends BaseAppWidget {
                 if (target != null) {
                     Glide.clear(target);
                 }
-                target = SongGlideRequest.Builder.from(Glide.with(appContext), song)
-                        .checkIgnoreMediaStore(appContext)
-                        .asBitmap().build()
+                target = createAlbumArtRequest(appContext, song)
                         .into(new SimpleTarget<Bitmap>(widgetImageSize, widgetImageSize) {
                             @Override
                             public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
@@ -123,6 +121,19 @@ public class AppWidgetBig extends BaseAppWidget {
         });
     }
 
+    @Override
+    protected int getAlbumArtSize(final Context context) {
+        final Point p = Util.getScreenSize(context);
+        return Math.min(p.x, p.y);
+    }
+
+    @Override
+    protected BitmapRequestBuilder<?, Bitmap> createAlbumArtRequest(final Context context, final Song song) {
+        return SongGlideRequest.Builder.from(Glide.with(context), song)
+                .checkIgnoreMediaStore(context)
+                .asBitmap().build();
+    }
+
     /**
      * Link up various button actions using {@link PendingIntent}.
      */
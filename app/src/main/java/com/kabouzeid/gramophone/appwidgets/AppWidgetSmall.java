@@ -12,6 +12,7 @@ import android.text.TextUtils;
 import android.view.View;
 import android.widget.RemoteViews;
 
+import com.bumptech.glide.BitmapRequestBuilder;
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.request.animation.GlideAnimation;
 import com.bumptech.glide.request.target.SimpleTarget;
@@ -30,7 +31,6 @@ public class AppWidgetSmall extends BaseAppWidget {
     public static final String NAME = "app_widget_small";
 
     private static AppWidgetSmall mInstance;
-    private static int imageSize = 0;
     private static float cardRadius = 0f;
     private Target<BitmapPaletteWrapper> target; // for cancellation
 
@@ -85,8 +85,7 @@ public class AppWidgetSmall extends BaseAppWidget {
         // Link actions buttons to intents
         linkButtons(service, appWidgetView);
 
-        if (imageSize == 0)
-            imageSize = service.getResources().getDimensionPixelSize(R.dimen.app_widget_small_image_size);
+        final int imageSize = getAlbumArtSize(service);
         if (cardRadius == 0f)
             cardRadius = service.getResources().getDimension(R.dimen.app_widget_card_radius);
 
@@ -98,10 +97,7 @@ public class AppWidgetSmall extends BaseAppWidget {
                 if (target != null) {
                     Glide.clear(target);
                 }
-                target = SongGlideRequest.Builder.from(Glide.with(appContext), song)
-                        .checkIgnoreMediaStore(appContext)
-                        .generatePalette(service).build()
-                        .centerCrop()
+                target = createAlbumArtRequest(appContext, song)
                         .into(new SimpleTarget<BitmapPaletteWrapper>(imageSize, imageSize) {
                             @Override
                             public void onResourceReady(BitmapPaletteWrapper resource, GlideAnimation<? super BitmapPaletteWrapper> glideAnimation) {
@@ -135,6 +131,19 @@ public class AppWidgetSmall extends BaseAppWidget {
         });
     }
 
+    @Override
+    protected int getAlbumArtSize(final Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.app_widget_small_image_size);
+    }
+
+    @Override
+    protected BitmapRequestBuilder<?, BitmapPaletteWrapper> createAlbumArtRequest(final Context context, final Song song) {
+        return SongGlideRequest.Builder.from(Glide.with(context), song)
+                .checkIgnoreMediaStore(context)
+                .generatePalette(context).build()
+                .centerCrop();
+    }
+
     /**
      * Link up various button actions using {@link PendingIntent}.
      */
@@ -18,6 +18,8 @@ import android.graphics.drawable.Drawable;
 import android.os.Build;
 import android.widget.RemoteViews;
 
+import com.bumptech.glide.GenericRequestBuilder;
+import com.bumptech.glide.Priority;
 import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.service.MusicService;
@@ -52,6 +54,18 @@ public abstract class BaseAppWidget extends AppWidgetProvider {
         }
     }
 
+    /**
+     * Loads the cover of an upcoming song into the cache, so the widget can show it right away once the song starts.
+     */
+    public void prefetchAlbumArt(final MusicService service, final Song song) {
+        if (hasInstances(service)) {
+            final int size = getAlbumArtSize(service);
+            createAlbumArtRequest(service, song)
+                    .priority(Priority.LOW)
+                    .preload(size, size);
+        }
+    }
+
     protected void pushUpdate(final Context context, final int[] appWidgetIds, final RemoteViews views) {
         final AppWidgetManager appWidgetManager = AppWidgetManager.getInstance(context);
         if (appWidgetIds != null) {
@@ -126,6 +140,13 @@ public abstract class BaseAppWidget extends AppWidgetProvider {
 
     abstract public void performUpdate(final MusicService service, final int[] appWidgetIds);
 
+    abstract protected int getAlbumArtSize(final Context context);
+
+    /**
+     * The request used to load the cover in {@link #performUpdate(MusicService, int[])}.
+     */
+    abstract protected GenericRequestBuilder<?, ?, ?, ?> createAlbumArtRequest(final Context context, final Song song);
+
     protected Drawable getAlbumArtDrawable(final Resources resources, final Bitmap bitmap) {
         Drawable image;
         if (bitmap == null) {
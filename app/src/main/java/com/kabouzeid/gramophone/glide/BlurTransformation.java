@@ -4,33 +4,26 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
-import android.os.Build;
-import android.renderscript.Allocation;
-import android.renderscript.Element;
-import android.renderscript.RSRuntimeException;
-import android.renderscript.RenderScript;
-import android.renderscript.ScriptIntrinsicBlur;
 import androidx.annotation.FloatRange;
 import androidx.annotation.NonNull;
 
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.bitmap.BitmapTransformation;
-import com.kabouzeid.gramophone.BuildConfig;
 import com.kabouzeid.gramophone.helper.StackBlur;
 import com.kabouzeid.gramophone.util.ImageUtil;
 
 /**
+ * Blurs with the parallel {@link StackBlur} on all versions, RenderScript is deprecated and failed to load on some devices.
+ *
  * @author Karim Abou Zeid (kabouzeid)
  */
 public class BlurTransformation extends BitmapTransformation {
     public static final float DEFAULT_BLUR_RADIUS = 5f;
 
-    private Context context;
     private float blurRadius;
     private int sampling;
 
     private void init(Builder builder) {
-        this.context = builder.context;
         this.blurRadius = builder.blurRadius;
         this.sampling = builder.sampling;
     }
@@ -109,35 +102,15 @@ public class BlurTransformation extends BitmapTransformation {
             out = Bitmap.createBitmap(scaledWidth, scaledHeight, Bitmap.Config.ARGB_8888);
         }
 
+        // the cover is drawn opaque, this also makes Glide cache the blurred result as a small jpeg instead of a png
+        out.setHasAlpha(false);
+
         Canvas canvas = new Canvas(out);
         canvas.scale(1 / (float) sampling, 1 / (float) sampling);
         Paint paint = new Paint();
         paint.setFlags(Paint.FILTER_BITMAP_FLAG);
         canvas.drawBitmap(toTransform, 0, 0, paint);
 
-        if (Build.VERSION.SDK_INT >= 17) {
-            try {
-                final RenderScript rs = RenderScript.create(context.getApplicationContext());
-                final Allocation input = Allocation.createFromBitmap(rs, out, Allocation.MipmapControl.MIPMAP_NONE, Allocation.USAGE_SCRIPT);
-                final Allocation output = Allocation.createTyped(rs, input.getType());
-                final ScriptIntrinsicBlur script = ScriptIntrinsicBlur.create(rs, Element.U8_4(rs));
-
-                script.setRadius(blurRadius);
-                script.setInput(input);
-                script.forEach(output);
-
-                output.copyTo(out);
-
-                rs.destroy();
-
-                return out;
-
-            } catch (RSRuntimeException e) {
-                // on some devices RenderScript.create() throws: android.support.v8.renderscript.RSRuntimeException: Error loading libRSSupport library
-                if (BuildConfig.DEBUG) e.printStackTrace();
-            }
-        }
-
         return StackBlur.blur(out, blurRadius);
     }
 
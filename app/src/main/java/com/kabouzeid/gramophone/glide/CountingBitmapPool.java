@@ -0,0 +1,119 @@
+package com.kabouzeid.gramophone.glide;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import com.bumptech.glide.load.engine.bitmap_recycle.LruBitmapPool;
+import com.bumptech.glide.util.Util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts how many bitmaps could be reused from the pool and keeps track of how much the pool holds.
+ * <p>
+ * The pool does not report its evictions, so the occupancy can be off by the size of one bitmap.
+ */
+public class CountingBitmapPool extends LruBitmapPool {
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static volatile CountingBitmapPool instance;
+
+    private int currentSize;
+    // get() may be implemented on top of getDirty(), each bitmap is only counted once
+    private boolean inGet;
+
+    public CountingBitmapPool(int maxSize) {
+        super(maxSize);
+        instance = this;
+    }
+
+    /**
+     * @return the share of requested bitmaps since the app started that were reused from the pool, or -1 if there were none yet.
+     */
+    public static float getHitRate() {
+        final long hitCount = hits.get();
+        final long lookupCount = hitCount + misses.get();
+        return lookupCount == 0 ? -1 : (float) hitCount / lookupCount;
+    }
+
+    /**
+     * @return the bytes currently held by the pool, or 0 if Glide has not been set up yet.
+     */
+    public static int getOccupancy() {
+        final CountingBitmapPool pool = instance;
+        if (pool == null) return 0;
+        synchronized (pool) {
+            return pool.currentSize;
+        }
+    }
+
+    /**
+     * @return the size of the pool in bytes, or 0 if Glide has not been set up yet.
+     */
+    public static int getCapacity() {
+        final CountingBitmapPool pool = instance;
+        return pool == null ? 0 : pool.getMaxSize();
+    }
+
+    @Override
+    public synchronized boolean put(Bitmap bitmap) {
+        final int size = bitmap != null ? Util.getBitmapByteSize(bitmap) : 0;
+        final boolean put = super.put(bitmap);
+        if (put) {
+            // the pool evicts down to its max size
+            currentSize = Math.min(currentSize + size, getMaxSize());
+        }
+        return put;
+    }
+
+    @Override
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        final Bitmap bitmap;
+        inGet = true;
+        try {
+            bitmap = super.get(width, height, config);
+        } finally {
+            inGet = false;
+        }
+        return count(bitmap);
+    }
+
+    @Override
+    public synchronized Bitmap getDirty(int width, int height, Bitmap.Config config) {
+        final Bitmap bitmap = super.getDirty(width, height, config);
+        return inGet ? bitmap : count(bitmap);
+    }
+
+    @Override
+    public synchronized void setSizeMultiplier(float sizeMultiplier) {
+        super.setSizeMultiplier(sizeMultiplier);
+        currentSize = Math.min(currentSize, getMaxSize());
+    }
+
+    @Override
+    public synchronized void clearMemory() {
+        super.clearMemory();
+        currentSize = 0;
+    }
+
+    @Override
+    public synchronized void trimMemory(int level) {
+        super.trimMemory(level);
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            currentSize = 0;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            currentSize = Math.min(currentSize, getMaxSize() / 2);
+        }
+    }
+
+    private Bitmap count(Bitmap bitmap) {
+        if (bitmap != null) {
+            hits.incrementAndGet();
+            currentSize = Math.max(0, currentSize - Util.getBitmapByteSize(bitmap));
+        } else {
+            misses.incrementAndGet();
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,72 @@
+package com.kabouzeid.gramophone.glide;
+
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.cache.DiskCache;
+
+import java.io.File;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the hits and misses of the disk cache it wraps.
+ */
+public class CountingDiskCache implements DiskCache {
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private final DiskCache cache;
+
+    public CountingDiskCache(@NonNull DiskCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * @return the share of lookups since the app started that were served from the disk cache, or -1 if there were none yet.
+     */
+    public static float getHitRate() {
+        final long hitCount = hits.get();
+        final long lookupCount = hitCount + misses.get();
+        return lookupCount == 0 ? -1 : (float) hitCount / lookupCount;
+    }
+
+    @Override
+    public File get(Key key) {
+        final File file = cache.get(key);
+        if (file != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return file;
+    }
+
+    @Override
+    public void put(Key key, Writer writer) {
+        cache.put(key, writer);
+    }
+
+    @Override
+    public void delete(Key key) {
+        cache.delete(key);
+    }
+
+    @Override
+    public void clear() {
+        cache.clear();
+    }
+
+    public static class Factory implements DiskCache.Factory {
+        private final DiskCache.Factory factory;
+
+        public Factory(@NonNull DiskCache.Factory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public DiskCache build() {
+            final DiskCache cache = factory.build();
+            return cache == null ? null : new CountingDiskCache(cache);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.kabouzeid.gramophone.glide;
+
+import com.bumptech.glide.load.Key;
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.engine.cache.LruResourceCache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the hits and misses of the memory cache.
+ * <p>
+ * Glide takes a resource out of the cache while it is in use, so images that are still on screen count as misses.
+ */
+public class CountingMemoryCache extends LruResourceCache {
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    private static volatile CountingMemoryCache instance;
+
+    public CountingMemoryCache(int size) {
+        super(size);
+        instance = this;
+    }
+
+    /**
+     * @return the share of lookups since the app started that were served from the memory cache, or -1 if there were none yet.
+     */
+    public static float getHitRate() {
+        final long hitCount = hits.get();
+        final long lookupCount = hitCount + misses.get();
+        return lookupCount == 0 ? -1 : (float) hitCount / lookupCount;
+    }
+
+    /**
+     * @return the bytes currently held by the memory cache, or 0 if Glide has not been set up yet.
+     */
+    public static int getOccupancy() {
+        final CountingMemoryCache cache = instance;
+        return cache == null ? 0 : cache.getCurrentSize();
+    }
+
+    /**
+     * @return the size of the memory cache in bytes, or 0 if Glide has not been set up yet.
+     */
+    public static int getCapacity() {
+        final CountingMemoryCache cache = instance;
+        return cache == null ? 0 : cache.getMaxSize();
+    }
+
+    @Override
+    public Resource<?> remove(Key key) {
+        final Resource<?> resource = super.remove(key);
+        if (resource != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return resource;
+    }
+}
@@ -0,0 +1,60 @@
+package com.kabouzeid.gramophone.glide;
+
+import android.graphics.Bitmap;
+
+import com.bumptech.glide.load.engine.Resource;
+import com.bumptech.glide.load.resource.transcode.ResourceTranscoder;
+import com.bumptech.glide.util.Util;
+
+/**
+ * Copies the bitmap into one that is never recycled or reused by Glide, so it can safely be handed to others (e.g. the media session).
+ * <p>
+ * The copy is made on the decode thread and kept in the memory cache like any other result.
+ */
+public class DetachedBitmapTranscoder implements ResourceTranscoder<Bitmap, Bitmap> {
+
+    @Override
+    public Resource<Bitmap> transcode(Resource<Bitmap> toTranscode) {
+        final Bitmap bitmap = toTranscode.get();
+        Bitmap.Config config = bitmap.getConfig();
+        if (config == null) {
+            config = Bitmap.Config.RGB_565;
+        }
+        try {
+            return new DetachedBitmapResource(bitmap.copy(config, false));
+        } catch (OutOfMemoryError e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            toTranscode.recycle();
+        }
+    }
+
+    @Override
+    public String getId() {
+        return "DetachedBitmapTranscoder.com.kabouzeid.gramophone.glide";
+    }
+
+    private static class DetachedBitmapResource implements Resource<Bitmap> {
+        private final Bitmap bitmap;
+
+        DetachedBitmapResource(Bitmap bitmap) {
+            this.bitmap = bitmap;
+        }
+
+        @Override
+        public Bitmap get() {
+            return bitmap;
+        }
+
+        @Override
+        public int getSize() {
+            return Util.getBitmapByteSize(bitmap);
+        }
+
+        @Override
+        public void recycle() {
+            // others might still be using the bitmap, it is left to the garbage collector
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kabouzeid.gramophone.glide;
+
+import android.app.ActivityManager;
+import android.content.Context;
+import android.os.Build;
+import android.util.DisplayMetrics;
+import androidx.annotation.NonNull;
+
+/**
+ * Sizes Glide's memory cache and bitmap pool from the heap the app is allowed to use and the size of the screen.
+ * <p>
+ * The targets are counted in screens full of covers, most covers are opaque and decoded as RGB_565.
+ * Devices with little memory get a smaller share of the heap and a smaller bitmap pool,
+ * the covers of a grid all have the same size so even a small pool is reused well.
+ */
+public class GlideMemoryBudget {
+    // memory classes up to this are treated as low memory devices, in MB
+    private static final int LOW_MEMORY_CLASS = 64;
+
+    private static final float MAX_SIZE_MULTIPLIER = 0.4f;
+    private static final float LOW_MEMORY_MAX_SIZE_MULTIPLIER = 0.25f;
+
+    private static final int MEMORY_CACHE_TARGET_SCREENS = 2;
+    private static final int BITMAP_POOL_TARGET_SCREENS = 3;
+    private static final int LOW_MEMORY_BITMAP_POOL_TARGET_SCREENS = 1;
+
+    // RGB_565
+    private static final int BYTES_PER_PIXEL = 2;
+
+    private final int memoryCacheSize;
+    private final int bitmapPoolSize;
+
+    public GlideMemoryBudget(@NonNull Context context) {
+        final ActivityManager activityManager = (ActivityManager) context.getSystemService(Context.ACTIVITY_SERVICE);
+        final int memoryClass = activityManager.getMemoryClass();
+        final boolean lowMemory = memoryClass <= LOW_MEMORY_CLASS
+                || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && activityManager.isLowRamDevice();
+
+        final int maxSize = Math.round(memoryClass * 1024 * 1024 * (lowMemory ? LOW_MEMORY_MAX_SIZE_MULTIPLIER : MAX_SIZE_MULTIPLIER));
+
+        final DisplayMetrics displayMetrics = context.getResources().getDisplayMetrics();
+        final int screenSize = displayMetrics.widthPixels * displayMetrics.heightPixels * BYTES_PER_PIXEL;
+
+        final int targetMemoryCacheSize = screenSize * MEMORY_CACHE_TARGET_SCREENS;
+        final int targetBitmapPoolSize = screenSize * (lowMemory ? LOW_MEMORY_BITMAP_POOL_TARGET_SCREENS : BITMAP_POOL_TARGET_SCREENS);
+
+        if (targetMemoryCacheSize + targetBitmapPoolSize <= maxSize) {
+            memoryCacheSize = targetMemoryCacheSize;
+            bitmapPoolSize = targetBitmapPoolSize;
+        } else {
+            // keep the ratio, but stay within the share of the heap
+            final float scale = (float) maxSize / (targetMemoryCacheSize + targetBitmapPoolSize);
+            memoryCacheSize = Math.round(targetMemoryCacheSize * scale);
+            bitmapPoolSize = Math.round(targetBitmapPoolSize * scale);
+        }
+    }
+
+    public int getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    public int getBitmapPoolSize() {
+        return bitmapPoolSize;
+    }
+}
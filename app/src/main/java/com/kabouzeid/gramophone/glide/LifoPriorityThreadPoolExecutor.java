@@ -0,0 +1,73 @@
+package com.kabouzeid.gramophone.glide;
+
+import android.os.Process;
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.load.engine.executor.Prioritized;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs Glide loads by priority, and loads of the same priority newest first.
+ * <p>
+ * While scrolling the newest loads are the ones for the cells that just became visible,
+ * the older ones are mostly for cells that are already gone again and get cancelled before they are started.
+ */
+public class LifoPriorityThreadPoolExecutor extends ThreadPoolExecutor {
+    private final AtomicInteger ordering = new AtomicInteger();
+
+    public LifoPriorityThreadPoolExecutor(int poolSize) {
+        super(poolSize, poolSize, 0, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), new BackgroundThreadFactory());
+    }
+
+    /**
+     * @return a pool size that keeps all cores busy without decoding too many covers at once on devices with lots of them.
+     */
+    public static int getDefaultPoolSize() {
+        return Math.max(2, Math.min(Runtime.getRuntime().availableProcessors(), 4));
+    }
+
+    @NonNull
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new LoadTask<>(runnable, value, ordering.getAndIncrement());
+    }
+
+    private static class LoadTask<T> extends FutureTask<T> implements Comparable<LoadTask<?>> {
+        private final int priority;
+        private final int order;
+
+        LoadTask(Runnable runnable, T result, int order) {
+            super(runnable, result);
+            // lower values are more important, see Priority#ordinal()
+            priority = runnable instanceof Prioritized ? ((Prioritized) runnable).getPriority() : Integer.MAX_VALUE;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(@NonNull LoadTask<?> other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return other.order - order;
+        }
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            return new Thread(() -> {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runnable.run();
+            }, "glide-decode-" + threadNumber.getAndIncrement());
+        }
+    }
+}
@@ -6,19 +6,40 @@ import java.io.InputStream;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.GlideBuilder;
+import com.bumptech.glide.load.DecodeFormat;
+import com.bumptech.glide.load.engine.cache.InternalCacheDiskCacheFactory;
 import com.bumptech.glide.module.GlideModule;
 import com.kabouzeid.gramophone.glide.artistimage.ArtistImage;
 import com.kabouzeid.gramophone.glide.artistimage.ArtistImageLoader;
 import com.kabouzeid.gramophone.glide.audiocover.AudioFileCover;
 import com.kabouzeid.gramophone.glide.audiocover.AudioFileCoverLoader;
+import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 /**
  * @author Karim Abou Zeid (kabouzeid)
  */
 public class PhonographGlideModule implements GlideModule {
+    // the disk cache of Glide can't be resized once it is created
+    private static volatile int diskCacheSize = -1;
+
+    /**
+     * @return the size in bytes the disk cache was created with, or -1 if Glide has not been initialized yet.
+     */
+    public static int getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
     @Override
     public void applyOptions(Context context, GlideBuilder builder) {
+        diskCacheSize = PreferenceUtil.getInstance(context).getImageCacheSize();
+        builder.setDiskCache(new CountingDiskCache.Factory(new InternalCacheDiskCacheFactory(context, diskCacheSize)));
+        builder.setResizeService(new LifoPriorityThreadPoolExecutor(LifoPriorityThreadPoolExecutor.getDefaultPoolSize()));
 
+        final GlideMemoryBudget memoryBudget = new GlideMemoryBudget(context);
+        builder.setMemoryCache(new CountingMemoryCache(memoryBudget.getMemoryCacheSize()));
+        builder.setBitmapPool(new CountingBitmapPool(memoryBudget.getBitmapPoolSize()));
+        // opaque covers are decoded with half the memory, covers with transparency still get ARGB_8888
+        builder.setDecodeFormat(DecodeFormat.PREFER_RGB_565);
     }
 
     @Override
@@ -11,8 +11,10 @@ import com.bumptech.glide.RequestManager;
 import com.bumptech.glide.load.Key;
 import com.bumptech.glide.load.engine.DiskCacheStrategy;
 import com.bumptech.glide.load.resource.drawable.GlideDrawable;
-import com.bumptech.glide.signature.MediaStoreSignature;
+import com.bumptech.glide.signature.EmptySignature;
+import com.bumptech.glide.signature.StringSignature;
 import com.kabouzeid.gramophone.R;
+import com.kabouzeid.gramophone.glide.audiocover.AlbumCoverResolver;
 import com.kabouzeid.gramophone.glide.audiocover.AudioFileCover;
 import com.kabouzeid.gramophone.glide.palette.BitmapPaletteTranscoder;
 import com.kabouzeid.gramophone.glide.palette.BitmapPaletteWrapper;
@@ -25,7 +27,8 @@ import com.kabouzeid.gramophone.util.PreferenceUtil;
  */
 public class SongGlideRequest {
 
-    public static final DiskCacheStrategy DEFAULT_DISK_CACHE_STRATEGY = DiskCacheStrategy.NONE;
+    // only the resized covers are cached, they are a lot smaller than the embedded pictures
+    public static final DiskCacheStrategy DEFAULT_DISK_CACHE_STRATEGY = DiskCacheStrategy.RESULT;
     public static final int DEFAULT_ERROR_IMAGE = R.drawable.default_album_art;
     public static final int DEFAULT_ANIMATION = android.R.anim.fade_in;
 
@@ -66,25 +69,40 @@ public class SongGlideRequest {
                     .diskCacheStrategy(DEFAULT_DISK_CACHE_STRATEGY)
                     .error(DEFAULT_ERROR_IMAGE)
                     .animate(DEFAULT_ANIMATION)
-                    .signature(createSignature(song));
+                    .signature(createSignature(song, ignoreMediaStore));
         }
     }
 
     public static class BitmapBuilder {
         private final Builder builder;
+        private boolean detached;
 
         public BitmapBuilder(Builder builder) {
             this.builder = builder;
         }
 
+        /**
+         * The loaded bitmap is never recycled by Glide and can be handed to others.
+         *
+         * @see DetachedBitmapTranscoder
+         */
+        public BitmapBuilder detached() {
+            detached = true;
+            return this;
+        }
+
         public BitmapRequestBuilder<?, Bitmap> build() {
             //noinspection unchecked
-            return createBaseRequest(builder.requestManager, builder.song, builder.ignoreMediaStore)
-                    .asBitmap()
+            BitmapRequestBuilder<?, Bitmap> request = createBaseRequest(builder.requestManager, builder.song, builder.ignoreMediaStore)
+                    .asBitmap();
+            if (detached) {
+                request = request.transcode(new DetachedBitmapTranscoder(), Bitmap.class);
+            }
+            return request
                     .diskCacheStrategy(DEFAULT_DISK_CACHE_STRATEGY)
                     .error(DEFAULT_ERROR_IMAGE)
                     .animate(DEFAULT_ANIMATION)
-                    .signature(createSignature(builder.song));
+                    .signature(createSignature(builder.song, builder.ignoreMediaStore));
         }
     }
 
@@ -101,23 +119,41 @@ public class SongGlideRequest {
             //noinspection unchecked
             return createBaseRequest(builder.requestManager, builder.song, builder.ignoreMediaStore)
                     .asBitmap()
-                    .transcode(new BitmapPaletteTranscoder(context), BitmapPaletteWrapper.class)
+                    .transcode(new BitmapPaletteTranscoder(context, createPaletteKey(builder.song, builder.ignoreMediaStore)), BitmapPaletteWrapper.class)
                     .diskCacheStrategy(DEFAULT_DISK_CACHE_STRATEGY)
                     .error(DEFAULT_ERROR_IMAGE)
                     .animate(DEFAULT_ANIMATION)
-                    .signature(createSignature(builder.song));
+                    .signature(createSignature(builder.song, builder.ignoreMediaStore));
         }
     }
 
     public static DrawableTypeRequest createBaseRequest(RequestManager requestManager, Song song, boolean ignoreMediaStore) {
         if (ignoreMediaStore) {
-            return requestManager.load(new AudioFileCover(song.data));
+            return requestManager.load(new AudioFileCover(song.data, song.dateModified));
         } else {
             return requestManager.loadFromMediaStore(MusicUtil.getMediaStoreAlbumCoverUri(song.albumId));
         }
     }
 
-    public static Key createSignature(Song song) {
-        return new MediaStoreSignature("", song.dateModified, 0);
+    /**
+     * @return the key the palette of the cover of the song is stored by, it changes whenever the cover might have changed.
+     */
+    public static String createPaletteKey(Song song, boolean ignoreMediaStore) {
+        if (ignoreMediaStore) {
+            return "file:" + AlbumCoverResolver.getInstance().getCoverId(song.data, song.dateModified);
+        }
+        final Song coverSong = AlbumCoverResolver.getInstance().getCoverSong(song);
+        return "mediastore:" + coverSong.albumId + ":" + coverSong.dateModified + ":" + coverSong.data;
+    }
+
+    public static Key createSignature(Song song, boolean ignoreMediaStore) {
+        if (ignoreMediaStore) {
+            // the id of the file cover already changes with the file, and is shared by files with the same picture
+            return EmptySignature.obtain();
+        }
+        // all tracks of an album share the signature of one of them, so they also share the decoded cover
+        final Song coverSong = AlbumCoverResolver.getInstance().getCoverSong(song);
+        // a cached cover is outdated as soon as the file it was taken from changed or moved
+        return new StringSignature(coverSong.dateModified + ":" + coverSong.data);
     }
 }
@@ -2,29 +2,40 @@ package com.kabouzeid.gramophone.glide.artistimage;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.media.MediaMetadataRetriever;
-import android.util.Log;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.data.DataFetcher;
 import com.kabouzeid.gramophone.glide.audiocover.AudioFileCoverUtils;
 import com.kabouzeid.gramophone.util.ImageUtil;
-import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 /**
+ * Creates the image of an artist from the covers of its albums.
+ * <p>
+ * With more than three covers they are drawn as a square mosaic. Only the covers needed for the tiles are read,
+ * one at a time and decoded right at the size of a tile. The finished mosaic is cached by Glide
+ * ({@link com.kabouzeid.gramophone.glide.ArtistGlideRequest} caches the source), keyed by {@link #getId()} and the artist signature.
+ *
  * @author Karim Abou Zeid (kabouzeid)
  */
 public class ArtistImageFetcher implements DataFetcher<InputStream> {
+    private static final int MOSAIC_SIZE = 512;
+    private static final int MOSAIC_QUALITY = 90;
 
     private final ArtistImage model;
 
@@ -32,6 +43,8 @@ public class ArtistImageFetcher implements DataFetcher<InputStream> {
 
     private boolean ignoreMediaStore;
 
+    private volatile boolean cancelled;
+
     public ArtistImageFetcher(final ArtistImage model, boolean ignoreMediaStore) {
         this.model = model;
         this.ignoreMediaStore = ignoreMediaStore;
@@ -39,7 +52,6 @@ public class ArtistImageFetcher implements DataFetcher<InputStream> {
 
     @Override
     public String getId() {
-        Log.d("MOSAIC", "get id for" + model.artistName);
         // never return NULL here!
         // this id is used to determine whether the image is already cached
         // we use the artist name as well as the album years + file paths
@@ -48,112 +60,126 @@ public class ArtistImageFetcher implements DataFetcher<InputStream> {
 
     @Override
     public InputStream loadData(Priority priority) throws Exception {
-        Log.d("MOSAIC", "load data for" + model.artistName);
+        if (cancelled) return null;
         return stream = getMosaic(model.albumCovers);
     }
 
+    @Nullable
     private InputStream getMosaic(final List<AlbumCover> albumCovers) throws FileNotFoundException {
+        // newest albums first, they are the ones that make it into the mosaic
+        final List<AlbumCover> covers = new ArrayList<>(albumCovers);
+        Collections.sort(covers, (a, b) -> b.getYear() - a.getYear());
 
-        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
-
-        int artistBitMapSize = 512;
-
-        final Map<InputStream, Integer> images = new HashMap<>();
-
-        InputStream result = null;
-        List<InputStream> streams = new ArrayList<>();
-
+        final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
         try {
-            for (final AlbumCover cover : albumCovers) {
-                byte[] picture = null;
-                if (!ignoreMediaStore) {
-                    retriever.setDataSource(cover.getFilePath());
-                    picture = retriever.getEmbeddedPicture();
+            if (covers.size() > 3) {
+                List<AlbumCover> drawnCovers = new ArrayList<>();
+                InputStream mosaic = drawMosaic(retriever, covers, drawnCovers);
+                if (cancelled) return null;
+                if (mosaic == null && drawnCovers.size() > 3) {
+                    // some albums have no cover, the mosaic has to get smaller
+                    final List<AlbumCover> coversWithImage = drawnCovers;
+                    drawnCovers = new ArrayList<>();
+                    mosaic = drawMosaic(retriever, coversWithImage, drawnCovers);
                 }
-                final InputStream stream;
-                if (picture != null) {
-                    stream = new ByteArrayInputStream(picture);
-                } else {
-                    stream = AudioFileCoverUtils.fallback(cover.getFilePath());
-                }
-
-                if (stream != null) {
-                    images.put(stream, cover.getYear());
+                if (mosaic != null || cancelled) {
+                    return mosaic;
                 }
+                covers.clear();
+                covers.addAll(drawnCovers);
             }
 
-            int nbImages = images.size();
-
-            if (nbImages > 3) {
-                streams = new ArrayList<>(images.keySet());
-
-                int divisor = 1;
-                for (int i = 1; i < nbImages && Math.pow(i, 2) <= nbImages; ++i) {
-                    divisor = i;
+            // we return the last cover album of the artist
+            for (final AlbumCover cover : covers) {
+                if (cancelled) return null;
+                final byte[] picture = getPicture(retriever, cover);
+                if (picture != null) {
+                    return new ByteArrayInputStream(picture);
                 }
-                divisor += 1;
-                double nbTiles = Math.pow(divisor, 2);
-
-                if (nbImages < nbTiles) {
-                    divisor -= 1;
-                    nbTiles = Math.pow(divisor, 2);
+                final File folderImage = AudioFileCoverUtils.getFolderImage(cover.getFilePath());
+                if (folderImage != null) {
+                    return new FileInputStream(folderImage);
                 }
-                final int resize = (artistBitMapSize / divisor) + 1;
-
-                final Bitmap bitmap = Bitmap.createBitmap(artistBitMapSize, artistBitMapSize, Bitmap.Config.RGB_565);
-                final Canvas canvas = new Canvas(bitmap);
-
-                int x = 0;
-                int y = 0;
-
-                for (int i = 0; i < streams.size() && i < nbTiles; ++i) {
-                    final Bitmap bitmap1 = ImageUtil.resize(streams.get(i), resize, resize);
-                    canvas.drawBitmap(bitmap1, x, y, null);
-                    x += resize;
+            }
+            return null;
+        } finally {
+            retriever.release();
+        }
+    }
 
-                    if (x >= artistBitMapSize) {
-                        x = 0;
-                        y += resize;
-                    }
-                }
+    /**
+     * Draws the covers into a square grid of as many tiles as the number of covers allows.
+     *
+     * @param drawnCovers filled with the covers that had an image.
+     * @return the encoded mosaic, or null if not all tiles could be filled because some covers had no image.
+     */
+    @Nullable
+    private InputStream drawMosaic(@NonNull final MediaMetadataRetriever retriever, @NonNull final List<AlbumCover> covers, @NonNull final List<AlbumCover> drawnCovers) {
+        final int divisor = (int) Math.sqrt(covers.size());
+        final int tileCount = divisor * divisor;
+        final int tileSize = (MOSAIC_SIZE / divisor) + 1;
+
+        final Bitmap bitmap = Bitmap.createBitmap(MOSAIC_SIZE, MOSAIC_SIZE, Bitmap.Config.RGB_565);
+        final Canvas canvas = new Canvas(bitmap);
+        final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        final Rect tile = new Rect();
+
+        for (int i = 0; i < covers.size() && drawnCovers.size() < tileCount; i++) {
+            if (cancelled) {
+                bitmap.recycle();
+                return null;
+            }
+            final Bitmap tileBitmap = decodeTile(retriever, covers.get(i), tileSize);
+            if (tileBitmap == null) continue;
+
+            final int x = (drawnCovers.size() % divisor) * tileSize;
+            final int y = (drawnCovers.size() / divisor) * tileSize;
+            tile.set(x, y, x + tileSize, y + tileSize);
+            canvas.drawBitmap(tileBitmap, null, tile, paint);
+            tileBitmap.recycle();
+            drawnCovers.add(covers.get(i));
+        }
 
-                final ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                bitmap.compress(Bitmap.CompressFormat.PNG, 0, bos);
-                result = new ByteArrayInputStream(bos.toByteArray());
+        if (drawnCovers.size() < tileCount) {
+            bitmap.recycle();
+            return null;
+        }
 
-            } else if (nbImages > 0) {
-                // we return the last cover album of the artist
-                Map.Entry<InputStream, Integer> maxEntryYear = null;
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.compress(Bitmap.CompressFormat.JPEG, MOSAIC_QUALITY, bos);
+        bitmap.recycle();
+        return new ByteArrayInputStream(bos.toByteArray());
+    }
 
-                for (final Map.Entry<InputStream, Integer> entry : images.entrySet()) {
-                    if (maxEntryYear == null || entry.getValue()
-                            .compareTo(maxEntryYear.getValue()) > 0) {
-                        maxEntryYear = entry;
-                    }
-                }
+    @Nullable
+    private Bitmap decodeTile(@NonNull final MediaMetadataRetriever retriever, @NonNull final AlbumCover cover, final int tileSize) {
+        final byte[] picture = getPicture(retriever, cover);
+        if (picture != null) {
+            return ImageUtil.decodeSampledBitmap(picture, tileSize);
+        }
 
-                if (maxEntryYear != null) {
-                    result = maxEntryYear.getKey();
-                } else {
-                    result = images.entrySet()
-                            .iterator()
-                            .next()
-                            .getKey();
-                }
+        final File folderImage = AudioFileCoverUtils.getFolderImage(cover.getFilePath());
+        if (folderImage != null) {
+            return ImageUtil.decodeSampledBitmap(folderImage, tileSize);
+        }
+        return null;
+    }
 
-            }
-        } finally {
-            retriever.release();
+    @Nullable
+    private byte[] getPicture(@NonNull final MediaMetadataRetriever retriever, @NonNull final AlbumCover cover) {
+        byte[] picture = null;
+        if (!ignoreMediaStore) {
             try {
-                for (final InputStream stream : streams) {
-                    stream.close();
-                }
-            } catch (IOException e) {
-                e.printStackTrace();
+                retriever.setDataSource(cover.getFilePath());
+                picture = retriever.getEmbeddedPicture();
+            } catch (IllegalArgumentException ignored) {
+                // the file can not be read, try the fallbacks
             }
-
         }
-        return result;
+        if (picture == null) {
+            picture = AudioFileCoverUtils.getEmbeddedArtwork(cover.getFilePath());
+        }
+        return picture;
     }
 
     @Override
@@ -170,6 +196,7 @@ public class ArtistImageFetcher implements DataFetcher<InputStream> {
 
     @Override
     public void cancel() {
-
+        // checked before every cover that is read
+        cancelled = true;
     }
 }
@@ -0,0 +1,154 @@
+package com.kabouzeid.gramophone.glide.audiocover;
+
+import android.content.Context;
+import android.os.Process;
+import android.util.LongSparseArray;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kabouzeid.gramophone.App;
+import com.kabouzeid.gramophone.model.Song;
+import com.kabouzeid.gramophone.provider.CoverHashStore;
+import com.kabouzeid.gramophone.provider.CoverHashStore.CoverHash;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides which covers are shared between tracks.
+ * <p>
+ * Whenever the picture of a file is extracted, the digest of its embedded picture or the path of its folder image
+ * is kept in the {@link CoverHashStore}. A file whose picture was seen since it was last modified is cached by that picture,
+ * so the tracks of an album with one cover share a single cache entry and decoded bitmap.
+ * Folder images are identified by their path, modification date and length, so an image that is replaced gets a new id.
+ * A file whose picture was not seen yet is cached by its own path, so a track never shows the picture of another one.
+ */
+public class AlbumCoverResolver {
+    @Nullable
+    private static AlbumCoverResolver sInstance;
+
+    private final Context context;
+
+    // album id -> the song whose modification date stands for the media store cover of the album
+    private final LongSparseArray<Song> coverSongs = new LongSparseArray<>();
+    // file path -> its picture
+    private final Map<String, CoverHash> coverHashes = new HashMap<>();
+
+    private AlbumCoverResolver(@NonNull final Context context) {
+        this.context = context;
+        // until the stored hashes are loaded, files are cached by their path
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                onCoverHashesLoaded(CoverHashStore.getInstance(context).getCoverHashes());
+            }
+        }, AlbumCoverResolver.class.getSimpleName()).start();
+    }
+
+    @NonNull
+    public static synchronized AlbumCoverResolver getInstance() {
+        if (sInstance == null) {
+            sInstance = new AlbumCoverResolver(App.getInstance());
+        }
+        return sInstance;
+    }
+
+    private synchronized void onCoverHashesLoaded(@NonNull final Map<String, CoverHash> storedCoverHashes) {
+        for (Map.Entry<String, CoverHash> entry : storedCoverHashes.entrySet()) {
+            // pictures extracted in the meantime are newer
+            if (!coverHashes.containsKey(entry.getKey())) {
+                coverHashes.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the song whose signature is used for the media store cover of the given song, which is the same one for all tracks of an album.
+     */
+    @NonNull
+    public synchronized Song getCoverSong(@NonNull final Song song) {
+        if (song.albumId < 0) {
+            return song;
+        }
+        final Song coverSong = coverSongs.get(song.albumId);
+        // a newer version of the file the cover was taken from replaces it
+        if (coverSong == null || (coverSong.data.equals(song.data) && coverSong.dateModified != song.dateModified)) {
+            coverSongs.put(song.albumId, song);
+            return song;
+        }
+        return coverSong;
+    }
+
+    /**
+     * @return the id the picture of the given file is cached by, it changes whenever the file is modified.
+     */
+    @NonNull
+    public synchronized String getCoverId(@NonNull final String filePath, final long dateModified) {
+        if (dateModified < 0) {
+            return filePath;
+        }
+        final CoverHash coverHash = coverHashes.get(filePath);
+        if (coverHash != null && coverHash.dateModified == dateModified) {
+            if (coverHash.pictureDigest != null) {
+                return "embedded:" + coverHash.pictureDigest;
+            }
+            if (coverHash.folderImagePath != null) {
+                final File image = new File(coverHash.folderImagePath);
+                return "folder:" + image.lastModified() + ":" + image.length() + ":" + image.getPath();
+            }
+        }
+        return dateModified + ":" + filePath;
+    }
+
+    @NonNull
+    String getId(@NonNull final AudioFileCover model) {
+        return getCoverId(model.filePath, model.dateModified);
+    }
+
+    /**
+     * Remembers the embedded picture that was extracted for the given file.
+     */
+    void onEmbeddedPictureLoaded(@NonNull final AudioFileCover model, @NonNull final byte[] picture) {
+        if (model.dateModified < 0) return;
+        onPictureLoaded(model, new CoverHash(model.dateModified, digest(picture), null));
+    }
+
+    /**
+     * Remembers that the image in the folder of the given file was used for it.
+     */
+    void onFolderImageLoaded(@NonNull final AudioFileCover model, @NonNull final File image) {
+        if (model.dateModified < 0) return;
+        onPictureLoaded(model, new CoverHash(model.dateModified, null, image.getPath()));
+    }
+
+    private void onPictureLoaded(@NonNull final AudioFileCover model, @NonNull final CoverHash coverHash) {
+        synchronized (this) {
+            if (coverHash.equals(coverHashes.get(model.filePath))) {
+                return;
+            }
+            coverHashes.put(model.filePath, coverHash);
+        }
+        CoverHashStore.getInstance(context).putCoverHash(model.filePath, coverHash);
+    }
+
+    @NonNull
+    private static String digest(@NonNull final byte[] picture) {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Android version has SHA-1
+            throw new RuntimeException(e);
+        }
+        final StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest(picture)) {
+            hex.append(String.format(Locale.ROOT, "%02x", b));
+        }
+        return hex.toString();
+    }
+}
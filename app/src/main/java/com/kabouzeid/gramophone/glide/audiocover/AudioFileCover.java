@@ -5,8 +5,17 @@ package com.kabouzeid.gramophone.glide.audiocover;
  */
 public class AudioFileCover {
     public final String filePath;
+    public final long dateModified;
 
     public AudioFileCover(String filePath) {
+        this(filePath, -1);
+    }
+
+    /**
+     * @param dateModified the media store modification date of the file, files with the same picture share their cover once it was seen for both of them.
+     */
+    public AudioFileCover(String filePath, long dateModified) {
         this.filePath = filePath;
+        this.dateModified = dateModified;
     }
 }
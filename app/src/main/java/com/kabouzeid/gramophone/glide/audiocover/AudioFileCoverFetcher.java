@@ -1,44 +1,73 @@
 package com.kabouzeid.gramophone.glide.audiocover;
 
+import android.graphics.Bitmap;
 import android.media.MediaMetadataRetriever;
+import androidx.annotation.NonNull;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 
 import com.bumptech.glide.Priority;
 import com.bumptech.glide.load.data.DataFetcher;
+import com.kabouzeid.gramophone.util.ImageUtil;
 
 /**
+ * Covers that are a lot larger than the requested size are decoded right at that size here and handed to Glide re-encoded,
+ * so large artwork is never buffered and decoded at full size by Glide.
+ * <p>
+ * This makes the data depend on the size, so the size is part of the id and data downsampled for one size is never
+ * taken from the disk cache for another one.
+ *
  * @author Karim Abou Zeid (kabouzeid)
  */
 public class AudioFileCoverFetcher implements DataFetcher<InputStream> {
+    private static final int QUALITY = 95;
+
     private final AudioFileCover model;
+    // the larger side of the requested size, or a value <= 0 if the original size was requested
+    private final int size;
 
     private InputStream stream;
 
-    public AudioFileCoverFetcher(AudioFileCover model) {
+    private volatile boolean cancelled;
 
+    public AudioFileCoverFetcher(AudioFileCover model, int size) {
         this.model = model;
+        this.size = size;
     }
 
     @Override
     public String getId() {
-        // makes sure we never ever return null here
-        return String.valueOf(model.filePath);
+        return AlbumCoverResolver.getInstance().getId(model) + "@" + size;
     }
 
     @Override
     public InputStream loadData(final Priority priority) throws Exception {
+        // the cell this was requested for might have been scrolled away while waiting in the queue
+        if (cancelled) return null;
 
         final MediaMetadataRetriever retriever = new MediaMetadataRetriever();
         try {
             retriever.setDataSource(model.filePath);
             byte[] picture = retriever.getEmbeddedPicture();
+            if (cancelled) return null;
+            if (picture == null) {
+                picture = AudioFileCoverUtils.getEmbeddedArtwork(model.filePath);
+            }
+            if (cancelled) return null;
             if (picture != null) {
-                stream = new ByteArrayInputStream(picture);
+                AlbumCoverResolver.getInstance().onEmbeddedPictureLoaded(model, picture);
+                stream = downsample(picture);
             } else {
-                stream = AudioFileCoverUtils.fallback(model.filePath);
+                final File cover = AudioFileCoverUtils.getFolderImage(model.filePath);
+                if (cover != null) {
+                    AlbumCoverResolver.getInstance().onFolderImageLoaded(model, cover);
+                    stream = downsample(cover);
+                }
             }
         } finally {
             retriever.release();
@@ -47,6 +76,33 @@ public class AudioFileCoverFetcher implements DataFetcher<InputStream> {
         return stream;
     }
 
+    @NonNull
+    private InputStream downsample(@NonNull final byte[] picture) {
+        // only worth it if the picture is at least twice as large as needed
+        if (size <= 0 || ImageUtil.calculateInSampleSize(picture, size) < 2) {
+            return new ByteArrayInputStream(picture);
+        }
+        final Bitmap bitmap = ImageUtil.decodeSampledBitmap(picture, size);
+        return bitmap != null ? encode(bitmap) : new ByteArrayInputStream(picture);
+    }
+
+    @NonNull
+    private InputStream downsample(@NonNull final File cover) throws IOException {
+        if (size <= 0 || ImageUtil.calculateInSampleSize(cover, size) < 2) {
+            return new FileInputStream(cover);
+        }
+        final Bitmap bitmap = ImageUtil.decodeSampledBitmap(cover, size);
+        return bitmap != null ? encode(bitmap) : new FileInputStream(cover);
+    }
+
+    @NonNull
+    private static InputStream encode(@NonNull final Bitmap bitmap) {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bitmap.compress(bitmap.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG, QUALITY, bos);
+        bitmap.recycle();
+        return new ByteArrayInputStream(bos.toByteArray());
+    }
+
     @Override
     public void cleanup() {
         // already cleaned up in loadData and ByteArrayInputStream will be GC'd
@@ -61,6 +117,7 @@ public class AudioFileCoverFetcher implements DataFetcher<InputStream> {
 
     @Override
     public void cancel() {
-        // cannot cancel
+        // the extraction itself can not be interrupted, loadData gives up at the next step
+        cancelled = true;
     }
 }
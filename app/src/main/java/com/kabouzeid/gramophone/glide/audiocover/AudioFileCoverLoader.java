@@ -18,7 +18,7 @@ public class AudioFileCoverLoader implements StreamModelLoader<AudioFileCover> {
 
     @Override
     public DataFetcher<InputStream> getResourceFetcher(AudioFileCover model, int width, int height) {
-        return new AudioFileCoverFetcher(model);
+        return new AudioFileCoverFetcher(model, Math.max(width, height));
     }
 
     public static class Factory implements ModelLoaderFactory<AudioFileCover, InputStream> {
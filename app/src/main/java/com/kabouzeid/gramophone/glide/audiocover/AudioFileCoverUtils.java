@@ -1,11 +1,12 @@
 package com.kabouzeid.gramophone.glide.audiocover;
 
-import java.io.ByteArrayInputStream;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.Locale;
 
 import org.jaudiotagger.audio.exceptions.InvalidAudioFrameException;
 import org.jaudiotagger.audio.exceptions.ReadOnlyFileException;
@@ -17,16 +18,24 @@ public class AudioFileCoverUtils {
 
     public static final String[] FALLBACKS = {"cover.jpg", "album.jpg", "folder.jpg", "cover.png", "album.png", "folder.png"};
 
+    private static final int MAX_INDEXED_FOLDERS = 256;
+
+    // folder path -> the folder image found in it, shared by all tracks of the folder
+    private static final LruCache<String, FolderImage> folderImages = new LruCache<>(MAX_INDEXED_FOLDERS);
+
 
-    public static InputStream fallback(String path) throws FileNotFoundException {
-        // Method 1: use embedded high resolution album art if there is any
+    @Nullable
+    public static byte[] getEmbeddedArtwork(String path) {
+        // jaudiotagger would parse the whole file just to find out it is not an mp3
+        if (!path.toLowerCase(Locale.ROOT).endsWith(".mp3")) {
+            return null;
+        }
         try {
             MP3File mp3File = new MP3File(path);
             if (mp3File.hasID3v2Tag()) {
                 Artwork art = mp3File.getTag().getFirstArtwork();
                 if (art != null) {
-                    byte[] imageData = art.getBinaryData();
-                    return new ByteArrayInputStream(imageData);
+                    return art.getBinaryData();
                 }
             }
             // If there are any exceptions, we ignore them and continue to the other fallback method
@@ -35,15 +44,55 @@ public class AudioFileCoverUtils {
         } catch (TagException ignored) {
         } catch (IOException ignored) {
         }
+        return null;
+    }
 
-        // Method 2: look for album art in external files
+    /**
+     * The folder is only listed once and indexed until its modification time changes.
+     */
+    @Nullable
+    public static File getFolderImage(String path) {
         final File parent = new File(path).getParentFile();
-        for (String fallback : FALLBACKS) {
-            File cover = new File(parent, fallback);
-            if (cover.exists()) {
-                return new FileInputStream(cover);
+        if (parent == null) return null;
+
+        final long lastModified = parent.lastModified();
+        FolderImage folderImage = folderImages.get(parent.getPath());
+        if (folderImage == null || folderImage.lastModified != lastModified) {
+            folderImage = new FolderImage(lastModified, findFolderImage(parent));
+            folderImages.put(parent.getPath(), folderImage);
+        }
+        return folderImage.file;
+    }
+
+    @Nullable
+    private static File findFolderImage(@NonNull File folder) {
+        final File[] files = folder.listFiles();
+        if (files == null) return null;
+
+        File bestCover = null;
+        int bestRank = FALLBACKS.length;
+        for (File file : files) {
+            final String name = file.getName();
+            // the lower the rank, the more preferred the name
+            for (int rank = 0; rank < bestRank; rank++) {
+                if (FALLBACKS[rank].equalsIgnoreCase(name) && file.isFile()) {
+                    bestCover = file;
+                    bestRank = rank;
+                    break;
+                }
             }
         }
-        return null;
+        return bestCover;
+    }
+
+    private static class FolderImage {
+        final long lastModified;
+        @Nullable
+        final File file;
+
+        FolderImage(long lastModified, @Nullable File file) {
+            this.lastModified = lastModified;
+            this.file = file;
+        }
     }
 }
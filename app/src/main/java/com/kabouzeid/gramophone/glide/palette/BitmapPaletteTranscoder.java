@@ -2,31 +2,66 @@ package com.kabouzeid.gramophone.glide.palette;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import androidx.annotation.Nullable;
+import androidx.palette.graphics.Palette;
 
 import com.bumptech.glide.Glide;
 import com.bumptech.glide.load.engine.Resource;
 import com.bumptech.glide.load.engine.bitmap_recycle.BitmapPool;
 import com.bumptech.glide.load.resource.transcode.ResourceTranscoder;
+import com.kabouzeid.gramophone.provider.PaletteStore;
 import com.kabouzeid.gramophone.util.PhonographColorUtil;
 
 public class BitmapPaletteTranscoder implements ResourceTranscoder<Bitmap, BitmapPaletteWrapper> {
     private final BitmapPool bitmapPool;
+    @Nullable
+    private final PaletteStore paletteStore;
+    @Nullable
+    private final String paletteKey;
 
     public BitmapPaletteTranscoder(Context context) {
         this(Glide.get(context).getBitmapPool());
     }
 
+    /**
+     * @param paletteKey identifies the cover, its palette is only generated once and then taken from the {@link PaletteStore}.
+     */
+    public BitmapPaletteTranscoder(Context context, @Nullable String paletteKey) {
+        this(Glide.get(context).getBitmapPool(), PaletteStore.getInstance(context), paletteKey);
+    }
+
     public BitmapPaletteTranscoder(BitmapPool bitmapPool) {
+        this(bitmapPool, null, null);
+    }
+
+    private BitmapPaletteTranscoder(BitmapPool bitmapPool, @Nullable PaletteStore paletteStore, @Nullable String paletteKey) {
         this.bitmapPool = bitmapPool;
+        this.paletteStore = paletteStore;
+        this.paletteKey = paletteKey;
     }
 
     @Override
     public Resource<BitmapPaletteWrapper> transcode(Resource<Bitmap> bitmapResource) {
         Bitmap bitmap = bitmapResource.get();
-        BitmapPaletteWrapper bitmapPaletteWrapper = new BitmapPaletteWrapper(bitmap, PhonographColorUtil.generatePalette(bitmap));
+        BitmapPaletteWrapper bitmapPaletteWrapper = new BitmapPaletteWrapper(bitmap, getPalette(bitmap));
         return new BitmapPaletteResource(bitmapPaletteWrapper, bitmapPool);
     }
 
+    @Nullable
+    private Palette getPalette(Bitmap bitmap) {
+        if (paletteStore == null || paletteKey == null) {
+            return PhonographColorUtil.generatePalette(bitmap);
+        }
+        if (paletteStore.contains(paletteKey)) {
+            return paletteStore.getPalette(paletteKey);
+        }
+        final Palette palette = PhonographColorUtil.generatePalette(bitmap);
+        if (palette != null) {
+            paletteStore.putPalette(paletteKey, palette);
+        }
+        return palette;
+    }
+
     @Override
     public String getId() {
         return "BitmapPaletteTranscoder.com.kabouzeid.gramophone.glide.palette";
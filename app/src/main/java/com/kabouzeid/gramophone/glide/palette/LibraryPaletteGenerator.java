@@ -0,0 +1,83 @@
+package com.kabouzeid.gramophone.glide.palette;
+
+import android.content.Context;
+import android.os.Process;
+import androidx.annotation.NonNull;
+
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.request.FutureTarget;
+import com.kabouzeid.gramophone.glide.SongGlideRequest;
+import com.kabouzeid.gramophone.loader.AlbumLoader;
+import com.kabouzeid.gramophone.model.Album;
+import com.kabouzeid.gramophone.model.Song;
+import com.kabouzeid.gramophone.provider.PaletteStore;
+import com.kabouzeid.gramophone.util.PreferenceUtil;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Generates the palettes of all album covers of the library that are not in the {@link PaletteStore} yet,
+ * so the covers already have their colors the first time they are shown.
+ */
+public class LibraryPaletteGenerator implements Runnable {
+    // palettes are generated from a downscaled bitmap anyway
+    private static final int COVER_SIZE = 128;
+
+    private static final AtomicBoolean running = new AtomicBoolean();
+
+    private final Context context;
+
+    private LibraryPaletteGenerator(@NonNull Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /**
+     * Starts generating in the background, unless that is already happening.
+     */
+    public static void start(@NonNull Context context) {
+        if (running.compareAndSet(false, true)) {
+            new Thread(new LibraryPaletteGenerator(context), LibraryPaletteGenerator.class.getSimpleName()).start();
+        }
+    }
+
+    @Override
+    public void run() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            final boolean ignoreMediaStore = PreferenceUtil.getInstance(context).ignoreMediaStoreArtwork();
+            final PaletteStore paletteStore = PaletteStore.getInstance(context);
+            final List<Album> albums = AlbumLoader.getAllAlbums(context);
+            final Set<String> keys = new HashSet<>(albums.size());
+
+            for (Album album : albums) {
+                // tracks with their own pictures have their own palettes, those are generated when they are shown
+                for (Song albumSong : album.songs) {
+                    keys.add(SongGlideRequest.createPaletteKey(albumSong, ignoreMediaStore));
+                }
+                final Song song = album.safeGetFirstSong();
+                final String key = SongGlideRequest.createPaletteKey(song, ignoreMediaStore);
+                if (paletteStore.contains(key)) continue;
+
+                // the transcoder of the request puts the palette into the store
+                final FutureTarget<BitmapPaletteWrapper> target = SongGlideRequest.Builder.from(Glide.with(context), song)
+                        .ignoreMediaStore(ignoreMediaStore)
+                        .generatePalette(context).build()
+                        .into(COVER_SIZE, COVER_SIZE);
+                try {
+                    target.get();
+                } catch (Exception ignored) {
+                    // the album has no cover
+                } finally {
+                    Glide.clear(target);
+                }
+            }
+
+            paletteStore.retainAll(keys);
+        } finally {
+            running.set(false);
+        }
+    }
+}
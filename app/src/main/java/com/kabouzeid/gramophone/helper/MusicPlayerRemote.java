@@ -24,6 +24,7 @@ import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.loader.SongLoader;
 import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.service.MusicService;
+import com.kabouzeid.gramophone.service.PlaybackSnapshot;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 import java.io.File;
@@ -163,7 +164,7 @@ public class MusicPlayerRemote {
     }
 
     public static boolean isPlaying() {
-        return musicService != null && musicService.isPlaying();
+        return musicService != null && musicService.getPlaybackSnapshot().playing;
     }
 
     public static void resumePlaying() {
@@ -212,38 +213,34 @@ public class MusicPlayerRemote {
     }
 
     public static Song getCurrentSong() {
-        if (musicService != null) {
-            return musicService.getCurrentSong();
-        }
-        return Song.EMPTY_SONG;
+        return getPlaybackSnapshot().song;
     }
 
     public static int getPosition() {
-        if (musicService != null) {
-            return musicService.getPosition();
-        }
-        return -1;
+        return getPlaybackSnapshot().position;
     }
 
+    /**
+     * @return the queue as of the last change, it does not change anymore.
+     */
     public static List<Song> getPlayingQueue() {
+        return getPlaybackSnapshot().playingQueue;
+    }
+
+    @NonNull
+    public static PlaybackSnapshot getPlaybackSnapshot() {
         if (musicService != null) {
-            return musicService.getPlayingQueue();
+            return musicService.getPlaybackSnapshot();
         }
-        return new ArrayList<>();
+        return PlaybackSnapshot.EMPTY;
     }
 
     public static int getSongProgressMillis() {
-        if (musicService != null) {
-            return musicService.getSongProgressMillis();
-        }
-        return -1;
+        return getPlaybackSnapshot().getProgressMillis();
     }
 
     public static int getSongDurationMillis() {
-        if (musicService != null) {
-            return musicService.getSongDurationMillis();
-        }
-        return -1;
+        return getPlaybackSnapshot().durationMillis;
     }
 
     public static long getQueueDurationMillis(int position) {
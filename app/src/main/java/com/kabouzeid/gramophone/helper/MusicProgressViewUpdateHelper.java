@@ -4,6 +4,8 @@ import android.os.Handler;
 import android.os.Message;
 import androidx.annotation.NonNull;
 
+import com.kabouzeid.gramophone.service.PlaybackSnapshot;
+
 /**
  * @author Karim Abou Zeid (kabouzeid)
  */
@@ -47,12 +49,14 @@ public class MusicProgressViewUpdateHelper extends Handler {
     }
 
     private int refreshProgressViews() {
-        final int progressMillis = MusicPlayerRemote.getSongProgressMillis();
-        final int totalMillis = MusicPlayerRemote.getSongDurationMillis();
+        // one snapshot, so progress, duration and play state belong together
+        final PlaybackSnapshot snapshot = MusicPlayerRemote.getPlaybackSnapshot();
+        final int progressMillis = snapshot.getProgressMillis();
+        final int totalMillis = snapshot.durationMillis;
 
         callback.onUpdateProgressViews(progressMillis, totalMillis);
 
-        if (!MusicPlayerRemote.isPlaying()) {
+        if (!snapshot.playing) {
             return intervalPaused;
         }
 
@@ -1,12 +1,17 @@
 package com.kabouzeid.gramophone.helper;
 
 import android.graphics.Bitmap;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Blur using Java code.
@@ -37,7 +42,17 @@ import java.util.concurrent.Executors;
 public class StackBlur {
 
     static final int EXECUTOR_THREADS = Runtime.getRuntime().availableProcessors();
-    static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(EXECUTOR_THREADS);
+    // the threads go away when no blur ran for a while
+    static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(EXECUTOR_THREADS, EXECUTOR_THREADS, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+
+    static {
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    // lines are handed out to the threads in chunks of this size, so threads that finish early just take more chunks
+    private static final int LINES_PER_CHUNK = 16;
+    private static final int MAX_POOLED_BUFFERS = 2;
+    private static final List<int[]> bufferPool = new ArrayList<>(MAX_POOLED_BUFFERS);
 
     private static final short[] stackblur_mul = {
             512, 512, 456, 512, 328, 456, 335, 512, 405, 328, 271, 456, 388, 335, 292, 512,
@@ -77,36 +92,120 @@ public class StackBlur {
             24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24, 24
     };
 
-    public static Bitmap blur(Bitmap original, float radius) {
+    /**
+     * Blurs the bitmap in place if it is mutable, otherwise into a new bitmap.
+     *
+     * @return the blurred bitmap or null if the calling thread was interrupted.
+     */
+    @Nullable
+    public static Bitmap blur(@NonNull Bitmap original, float radius) {
         int w = original.getWidth();
         int h = original.getHeight();
-        int[] currentPixels = new int[w * h];
-        original.getPixels(currentPixels, 0, w, 0, 0, w, h);
-        int cores = EXECUTOR_THREADS;
-
-        List<BlurTask> horizontal = new ArrayList<>(cores);
-        List<BlurTask> vertical = new ArrayList<>(cores);
-        for (int i = 0; i < cores; i++) {
-            horizontal.add(new BlurTask(currentPixels, w, h, (int) radius, cores, i, 1));
-            vertical.add(new BlurTask(currentPixels, w, h, (int) radius, cores, i, 2));
+        int[] currentPixels = obtainBuffer(w * h);
+        try {
+            original.getPixels(currentPixels, 0, w, 0, 0, w, h);
+
+            try {
+                blurPass(currentPixels, w, h, (int) radius, 1);
+                blurPass(currentPixels, w, h, (int) radius, 2);
+            } catch (InterruptedException e) {
+                return null;
+            }
+
+            Bitmap blurred = original.isMutable() ? original : Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+            blurred.setPixels(currentPixels, 0, w, 0, 0, w, h);
+            return blurred;
+        } finally {
+            recycleBuffer(currentPixels);
         }
+    }
 
-        try {
-            EXECUTOR.invokeAll(horizontal);
-        } catch (InterruptedException e) {
-            return null;
+    /**
+     * @param step 1 blurs the rows, 2 blurs the columns.
+     */
+    private static void blurPass(final int[] src, final int w, final int h, final int radius, final int step) throws InterruptedException {
+        final int lines = step == 1 ? h : w;
+        final int chunks = (lines + LINES_PER_CHUNK - 1) / LINES_PER_CHUNK;
+        final AtomicInteger nextChunk = new AtomicInteger();
+        final Runnable worker = () -> {
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunks) {
+                final int min = chunk * LINES_PER_CHUNK;
+                blurIteration(src, w, h, radius, min, Math.min(lines, min + LINES_PER_CHUNK), step);
+            }
+        };
+
+        // the calling thread works along, so the blur also makes progress while the pool is busy
+        final List<Future<?>> helpers = new ArrayList<>();
+        for (int i = 1; i < Math.min(EXECUTOR_THREADS, chunks); i++) {
+            helpers.add(EXECUTOR.submit(worker));
+        }
+        worker.run();
+
+        // the buffer is recycled afterwards, so all helpers have to be done with it even if this thread gets interrupted
+        boolean interrupted = false;
+        Throwable failure = null;
+        for (Future<?> helper : helpers) {
+            while (true) {
+                try {
+                    helper.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                    // the helpers stop after the chunk they are working on
+                    nextChunk.set(chunks);
+                } catch (ExecutionException e) {
+                    failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new RuntimeException(failure);
         }
+        if (interrupted) {
+            throw new InterruptedException();
+        }
+    }
 
-        try {
-            EXECUTOR.invokeAll(vertical);
-        } catch (InterruptedException e) {
-            return null;
+    @NonNull
+    private static int[] obtainBuffer(int size) {
+        synchronized (bufferPool) {
+            int best = -1;
+            for (int i = 0; i < bufferPool.size(); i++) {
+                final int length = bufferPool.get(i).length;
+                if (length >= size && (best < 0 || length < bufferPool.get(best).length)) {
+                    best = i;
+                }
+            }
+            if (best >= 0) {
+                return bufferPool.remove(best);
+            }
         }
+        return new int[size];
+    }
 
-        return Bitmap.createBitmap(currentPixels, w, h, Bitmap.Config.ARGB_8888);
+    private static void recycleBuffer(@NonNull int[] buffer) {
+        synchronized (bufferPool) {
+            if (bufferPool.size() == MAX_POOLED_BUFFERS) {
+                // keep the larger buffers, they can serve more requests
+                int smallest = 0;
+                for (int i = 1; i < bufferPool.size(); i++) {
+                    if (bufferPool.get(i).length < bufferPool.get(smallest).length) {
+                        smallest = i;
+                    }
+                }
+                if (bufferPool.get(smallest).length >= buffer.length) return;
+                bufferPool.remove(smallest);
+            }
+            bufferPool.add(buffer);
+        }
     }
 
-    private static void blurIteration(int[] src, int w, int h, int radius, int cores, int core, int step) {
+    /**
+     * Blurs the rows (step 1) or columns (step 2) from {@code min} to {@code max}.
+     */
+    private static void blurIteration(int[] src, int w, int h, int radius, int min, int max, int step) {
         int x, y, xp, yp, i;
         int sp;
         int stack_start;
@@ -127,10 +226,7 @@ public class StackBlur {
         int[] stack = new int[div];
 
         if (step == 1) {
-            int minY = core * h / cores;
-            int maxY = (core + 1) * h / cores;
-
-            for (y = minY; y < maxY; y++) {
+            for (y = min; y < max; y++) {
                 sum_r = sum_g = sum_b =
                         sum_in_r = sum_in_g = sum_in_b =
                                 sum_out_r = sum_out_g = sum_out_b = 0;
@@ -218,10 +314,7 @@ public class StackBlur {
 
         // step 2
         else if (step == 2) {
-            int minX = core * w / cores;
-            int maxX = (core + 1) * w / cores;
-
-            for (x = minX; x < maxX; x++) {
+            for (x = min; x < max; x++) {
                 sum_r = sum_g = sum_b =
                         sum_in_r = sum_in_g = sum_in_b =
                                 sum_out_r = sum_out_g = sum_out_b = 0;
@@ -304,31 +397,4 @@ public class StackBlur {
         }
 
     }
-
-    private static class BlurTask implements Callable<Void> {
-        private final int[] _src;
-        private final int _w;
-        private final int _h;
-        private final int _radius;
-        private final int _totalCores;
-        private final int _coreIndex;
-        private final int _round;
-
-        public BlurTask(int[] src, int w, int h, int radius, int totalCores, int coreIndex, int round) {
-            _src = src;
-            _w = w;
-            _h = h;
-            _radius = radius;
-            _totalCores = totalCores;
-            _coreIndex = coreIndex;
-            _round = round;
-        }
-
-        @Override
-        public Void call() throws Exception {
-            blurIteration(_src, _w, _h, _radius, _totalCores, _coreIndex, _round);
-            return null;
-        }
-
-    }
 }
@@ -1,16 +1,13 @@
 package com.kabouzeid.gramophone.loader;
 
 import android.content.Context;
-import android.provider.MediaStore.Audio.AudioColumns;
 import androidx.annotation.NonNull;
-import androidx.annotation.Nullable;
 
 import com.kabouzeid.gramophone.model.Album;
-import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -24,60 +21,91 @@ public class AlbumLoader {
 
     @NonNull
     public static List<Album> getAllAlbums(@NonNull final Context context) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(
-                context,
-                null,
-                null,
-                getSongLoaderSortOrder(context))
-        );
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context), null);
         return splitIntoAlbums(songs);
     }
 
     @NonNull
     public static List<Album> getAlbums(@NonNull final Context context, String query) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(
-                context,
-                AudioColumns.ALBUM + " LIKE ?",
-                new String[]{"%" + query + "%"},
-                getSongLoaderSortOrder(context))
-        );
+        final String lowerCaseQuery = LibrarySnapshot.toLowerCase(query);
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context),
+                (table, row) -> LibrarySnapshot.containsIgnoreCase(table.getAlbumName(row), lowerCaseQuery));
         return splitIntoAlbums(songs);
     }
 
     @NonNull
     public static Album getAlbum(@NonNull final Context context, long albumId) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(context, AudioColumns.ALBUM_ID + "=?", new String[]{String.valueOf(albumId)}, getSongLoaderSortOrder(context)));
-        Album album = new Album(songs);
-        sortSongsByTrackNumber(album);
-        return album;
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context),
+                (table, row) -> table.albumIds[row] == albumId);
+        return new Album(sortByTrackNumber(songs.table, songs.rows));
     }
 
+    /**
+     * The albums only hold the rows of their songs.
+     */
     @NonNull
-    public static List<Album> splitIntoAlbums(@Nullable final List<Song> songs) {
-        List<Album> albums = new ArrayList<>();
-        if (songs != null) {
-            for (Song song : songs) {
-                getOrCreateAlbum(albums, song.albumId).songs.add(song);
+    static List<Album> splitIntoAlbums(@NonNull final SongRows songs) {
+        final SongTable table = songs.table;
+        // the distinct album ids, sorted so the position of an album id can be looked up
+        final long[] sortedAlbumIds = new long[songs.rows.length];
+        for (int i = 0; i < songs.rows.length; i++) {
+            sortedAlbumIds[i] = table.albumIds[songs.rows[i]];
+        }
+        Arrays.sort(sortedAlbumIds);
+        int albumCount = 0;
+        for (int i = 0; i < sortedAlbumIds.length; i++) {
+            if (i == 0 || sortedAlbumIds[i] != sortedAlbumIds[i - 1]) {
+                sortedAlbumIds[albumCount++] = sortedAlbumIds[i];
+            }
+        }
+
+        // keeps the albums in the order they first appear in, so the sort order of the song cursor is preserved
+        final int[] albumIndices = new int[albumCount];
+        Arrays.fill(albumIndices, -1);
+        final int[] songAlbumIndices = new int[songs.rows.length];
+        final int[] albumSizes = new int[albumCount];
+        int nextAlbumIndex = 0;
+        for (int i = 0; i < songs.rows.length; i++) {
+            final int sortedIndex = Arrays.binarySearch(sortedAlbumIds, 0, albumCount, table.albumIds[songs.rows[i]]);
+            if (albumIndices[sortedIndex] == -1) {
+                albumIndices[sortedIndex] = nextAlbumIndex++;
             }
+            final int albumIndex = albumIndices[sortedIndex];
+            songAlbumIndices[i] = albumIndex;
+            albumSizes[albumIndex]++;
+        }
+
+        final int[][] albumRows = new int[albumCount][];
+        for (int i = 0; i < albumRows.length; i++) {
+            albumRows[i] = new int[albumSizes[i]];
+            albumSizes[i] = 0;
         }
-        for (Album album : albums) {
-            sortSongsByTrackNumber(album);
+        for (int i = 0; i < songs.rows.length; i++) {
+            final int albumIndex = songAlbumIndices[i];
+            albumRows[albumIndex][albumSizes[albumIndex]++] = songs.rows[i];
+        }
+
+        final List<Album> albums = new ArrayList<>(albumRows.length);
+        for (int[] rows : albumRows) {
+            albums.add(new Album(sortByTrackNumber(table, rows)));
         }
         return albums;
     }
 
-    private static Album getOrCreateAlbum(List<Album> albums, long albumId) {
-        for (Album album : albums) {
-            if (!album.songs.isEmpty() && album.songs.get(0).albumId == albumId) {
-                return album;
-            }
+    @NonNull
+    private static SongRows sortByTrackNumber(@NonNull final SongTable table, @NonNull final int[] rows) {
+        // the track number in the upper half and the index in the lower one, so equal track numbers keep their order
+        final long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            keys[i] = ((long) table.trackNumbers[rows[i]] << 32) | i;
         }
-        Album album = new Album();
-        albums.add(album);
-        return album;
-    }
+        Arrays.sort(keys);
 
-    private static void sortSongsByTrackNumber(Album album) {
-        Collections.sort(album.songs, (o1, o2) -> o1.trackNumber - o2.trackNumber);
+        // the given rows might be shared, the sorted ones are a copy
+        final int[] trackRows = new int[rows.length];
+        for (int i = 0; i < trackRows.length; i++) {
+            trackRows[i] = rows[(int) keys[i]];
+        }
+        return new SongRows(table, trackRows);
     }
 }
@@ -1,13 +1,12 @@
 package com.kabouzeid.gramophone.loader;
 
 import android.content.Context;
-import android.provider.MediaStore.Audio.AudioColumns;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
 import com.kabouzeid.gramophone.model.Album;
 import com.kabouzeid.gramophone.model.Artist;
-import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 import java.util.ArrayList;
@@ -23,34 +22,22 @@ public class ArtistLoader {
 
     @NonNull
     public static List<Artist> getAllArtists(@NonNull final Context context) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(
-                context,
-                null,
-                null,
-                getSongLoaderSortOrder(context))
-        );
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context), null);
         return splitIntoArtists(AlbumLoader.splitIntoAlbums(songs));
     }
 
     @NonNull
     public static List<Artist> getArtists(@NonNull final Context context, String query) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(
-                context,
-                AudioColumns.ARTIST + " LIKE ?",
-                new String[]{"%" + query + "%"},
-                getSongLoaderSortOrder(context))
-        );
+        final String lowerCaseQuery = LibrarySnapshot.toLowerCase(query);
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context),
+                (table, row) -> LibrarySnapshot.containsIgnoreCase(table.getArtistName(row), lowerCaseQuery));
         return splitIntoArtists(AlbumLoader.splitIntoAlbums(songs));
     }
 
     @NonNull
     public static Artist getArtist(@NonNull final Context context, long artistId) {
-        List<Song> songs = SongLoader.getSongs(SongLoader.makeSongCursor(
-                context,
-                AudioColumns.ARTIST_ID + "=?",
-                new String[]{String.valueOf(artistId)},
-                getSongLoaderSortOrder(context))
-        );
+        SongRows songs = LibrarySnapshot.getInstance(context).getSongs(getSongLoaderSortOrder(context),
+                (table, row) -> table.artistIds[row] == artistId);
         return new Artist(AlbumLoader.splitIntoAlbums(songs));
     }
 
@@ -58,21 +45,21 @@ public class ArtistLoader {
     public static List<Artist> splitIntoArtists(@Nullable final List<Album> albums) {
         List<Artist> artists = new ArrayList<>();
         if (albums != null) {
+            LongSparseArray<Artist> artistsById = new LongSparseArray<>();
             for (Album album : albums) {
-                getOrCreateArtist(artists, album.getArtistId()).albums.add(album);
+                getOrCreateArtist(artists, artistsById, album.getArtistId()).albums.add(album);
             }
         }
         return artists;
     }
 
-    private static Artist getOrCreateArtist(List<Artist> artists, long artistId) {
-        for (Artist artist : artists) {
-            if (!artist.albums.isEmpty() && !artist.albums.get(0).songs.isEmpty() && artist.albums.get(0).songs.get(0).artistId == artistId) {
-                return artist;
-            }
+    private static Artist getOrCreateArtist(List<Artist> artists, LongSparseArray<Artist> artistsById, long artistId) {
+        Artist artist = artistsById.get(artistId);
+        if (artist == null) {
+            artist = new Artist();
+            artistsById.put(artistId, artist);
+            artists.add(artist);
         }
-        Artist artist = new Artist();
-        artists.add(artist);
         return artist;
     }
 }
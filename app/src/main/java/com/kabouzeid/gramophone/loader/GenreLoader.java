@@ -2,6 +2,9 @@ package com.kabouzeid.gramophone.loader;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.net.Uri;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
 import android.provider.MediaStore.Audio.Genres;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -11,15 +14,22 @@ import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class GenreLoader {
+    // not part of the public API, but served by the MediaProvider. Lists every (genre, song) mapping at once.
+    private static final Uri ALL_GENRE_MEMBERS_URI = Uri.parse("content://media/external/audio/genres/all/members");
 
     @NonNull
     public static List<Genre> getAllGenres(@NonNull final Context context) {
         return getGenresFromCursor(context, makeGenreCursor(context));
     }
 
+    /**
+     * Only call this when the songs of a genre are actually needed (e.g. when the genre is opened),
+     * {@link #getAllGenres(Context)} does not load any songs.
+     */
     @NonNull
     public static List<Song> getSongs(@NonNull final Context context, final long genreId) {
         return SongLoader.getSongs(makeGenreSongCursor(context, genreId));
@@ -29,33 +39,138 @@ public class GenreLoader {
     private static List<Genre> getGenresFromCursor(@NonNull final Context context, @Nullable final Cursor cursor) {
         final List<Genre> genres = new ArrayList<>();
         if (cursor != null) {
+            final long[] ids = new long[cursor.getCount()];
+            final String[] names = new String[ids.length];
+            int count = 0;
             if (cursor.moveToFirst()) {
                 do {
-                    Genre genre = getGenreFromCursor(context, cursor);
-                    if (genre.songCount > 0) {
-                        genres.add(genre);
-                    } else {
-                        // try to remove the empty genre from the media store
-                        try {
-                            context.getContentResolver().delete(Genres.EXTERNAL_CONTENT_URI, Genres._ID + " == " + genre.id, null);
-                        } catch (Exception e) {
-                            e.printStackTrace();
-                            // nothing we can do then
-                        }
-                    }
-                } while (cursor.moveToNext());
+                    ids[count] = cursor.getLong(0);
+                    names[count] = cursor.getString(1);
+                    count++;
+                } while (cursor.moveToNext() && count < ids.length);
             }
             cursor.close();
+
+            final int[] songCounts = getSongCounts(context, ids);
+            for (int i = 0; i < count; i++) {
+                if (songCounts[i] > 0) {
+                    genres.add(new Genre(ids[i], names[i], songCounts[i]));
+                } else {
+                    // try to remove the empty genre from the media store
+                    try {
+                        context.getContentResolver().delete(Genres.EXTERNAL_CONTENT_URI, Genres._ID + " == " + ids[i], null);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        // nothing we can do then
+                    }
+                }
+            }
         }
         return genres;
     }
 
+    /**
+     * @return the song count for each of the given genres, in the same order.
+     */
     @NonNull
-    private static Genre getGenreFromCursor(@NonNull final Context context, @NonNull final Cursor cursor) {
-        final long id = cursor.getLong(0);
-        final String name = cursor.getString(1);
-        final int songs = getSongs(context, id).size();
-        return new Genre(id, name, songs);
+    private static int[] getSongCounts(@NonNull final Context context, @NonNull final long[] genreIds) {
+        final int[] songCounts = new int[genreIds.length];
+        if (genreIds.length == 0) return songCounts;
+
+        final long[] sortedGenreIds = genreIds.clone();
+        Arrays.sort(sortedGenreIds);
+        final int[] sortedSongCounts = new int[sortedGenreIds.length];
+
+        if (countAllGenreMembers(context, sortedGenreIds, sortedSongCounts)) {
+            for (int i = 0; i < genreIds.length; i++) {
+                songCounts[i] = sortedSongCounts[Arrays.binarySearch(sortedGenreIds, genreIds[i])];
+            }
+        } else {
+            // fall back to one count-only query per genre
+            for (int i = 0; i < genreIds.length; i++) {
+                songCounts[i] = countGenreMembers(context, genreIds[i]);
+            }
+        }
+        return songCounts;
+    }
+
+    /**
+     * Counts the members of all genres in a single scan over the genre map.
+     *
+     * @return false if the media store doesn't support this, the counts are not valid then.
+     */
+    private static boolean countAllGenreMembers(@NonNull final Context context, @NonNull final long[] sortedGenreIds, @NonNull final int[] sortedSongCounts) {
+        // the genre map doesn't know about the BASE_SELECTION, so only count the songs that match it
+        final long[] sortedSongIds = getSortedSongIds(context);
+        if (sortedSongIds == null) return false;
+
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(
+                    ALL_GENRE_MEMBERS_URI,
+                    new String[]{Genres.Members.GENRE_ID, Genres.Members.AUDIO_ID}, null, null, null);
+        } catch (Exception e) {
+            return false;
+        }
+        if (cursor == null) return false;
+
+        try {
+            if (!cursor.moveToFirst()) {
+                // there are genres, so there must be members. The media store probably just ignored the query.
+                return false;
+            }
+            do {
+                int genreIndex = Arrays.binarySearch(sortedGenreIds, cursor.getLong(0));
+                if (genreIndex >= 0 && Arrays.binarySearch(sortedSongIds, cursor.getLong(1)) >= 0) {
+                    sortedSongCounts[genreIndex]++;
+                }
+            } while (cursor.moveToNext());
+            return true;
+        } catch (Exception e) {
+            return false;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Nullable
+    private static long[] getSortedSongIds(@NonNull final Context context) {
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(
+                    MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                    new String[]{BaseColumns._ID}, SongLoader.BASE_SELECTION, null, BaseColumns._ID);
+        } catch (SecurityException e) {
+            return null;
+        }
+        if (cursor == null) return null;
+
+        final long[] songIds = new long[cursor.getCount()];
+        int count = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                songIds[count++] = cursor.getLong(0);
+            } while (cursor.moveToNext() && count < songIds.length);
+        }
+        cursor.close();
+        // don't rely on the sort order of the media store
+        Arrays.sort(songIds, 0, count);
+        return count == songIds.length ? songIds : Arrays.copyOf(songIds, count);
+    }
+
+    private static int countGenreMembers(@NonNull final Context context, long genreId) {
+        Cursor cursor;
+        try {
+            cursor = context.getContentResolver().query(
+                    Genres.Members.getContentUri("external", genreId),
+                    new String[]{BaseColumns._ID}, SongLoader.BASE_SELECTION, null, null);
+        } catch (SecurityException e) {
+            return 0;
+        }
+        if (cursor == null) return 0;
+        final int count = cursor.getCount();
+        cursor.close();
+        return count;
     }
 
     @Nullable
@@ -0,0 +1,249 @@
+package com.kabouzeid.gramophone.loader;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+import android.provider.MediaStore;
+import android.provider.MediaStore.Audio.AudioColumns;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kabouzeid.gramophone.model.Song;
+import com.kabouzeid.gramophone.provider.BlacklistStore;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide in-memory copy of the songs in the media store.
+ * <p>
+ * The snapshot is marked dirty whenever the media store changes and is brought up to date on the next read.
+ * Updating only compares song ids and modification dates and re-reads the rows that were added or modified.
+ */
+public class LibrarySnapshot {
+    @Nullable
+    private static LibrarySnapshot sInstance;
+
+    private final Context context;
+
+    private volatile boolean dirty = true;
+    @NonNull
+    private SongTable table = SongTable.EMPTY;
+    @NonNull
+    private List<String> blacklistPaths = Collections.emptyList();
+    // sort order -> rows of the table in that order
+    private final Map<String, int[]> sortedRows = new HashMap<>();
+
+    private LibrarySnapshot(@NonNull final Context context) {
+        this.context = context;
+        context.getContentResolver().registerContentObserver(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, true, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                invalidate();
+            }
+        });
+    }
+
+    @NonNull
+    public static synchronized LibrarySnapshot getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new LibrarySnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Marks the snapshot as outdated, the next read will update it.
+     */
+    public void invalidate() {
+        dirty = true;
+    }
+
+    @NonNull
+    public List<Song> getSongs(@NonNull final String sortOrder) {
+        return getSongs(sortOrder, null);
+    }
+
+    @NonNull
+    synchronized SongRows getSongs(@NonNull final String sortOrder, @Nullable final RowFilter filter) {
+        final SongTable table = getTable();
+        final int[] rows = getSortedRows(table, sortOrder);
+        if (filter == null) {
+            return new SongRows(table, rows);
+        }
+
+        final int[] acceptedRows = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            if (filter.accept(table, row)) {
+                acceptedRows[count++] = row;
+            }
+        }
+        return new SongRows(table, Arrays.copyOf(acceptedRows, count));
+    }
+
+    /**
+     * Same semantics as {@code value LIKE '%query%'}.
+     *
+     * @param lowerCaseQuery the query, already converted with {@link #toLowerCase(String)}.
+     */
+    static boolean containsIgnoreCase(@Nullable final String value, @NonNull final String lowerCaseQuery) {
+        return value != null && toLowerCase(value).contains(lowerCaseQuery);
+    }
+
+    @NonNull
+    static String toLowerCase(@NonNull final String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+
+    @NonNull
+    private SongTable getTable() {
+        List<String> paths = BlacklistStore.getInstance(context).getPaths();
+        if (!paths.equals(blacklistPaths)) {
+            blacklistPaths = paths;
+            dirty = true;
+        }
+
+        if (dirty) {
+            // clear the flag first so changes happening while we are updating are not lost
+            dirty = false;
+            SongTable updatedTable = update(table);
+            if (updatedTable == null) {
+                dirty = true;
+            } else if (updatedTable != table) {
+                table = updatedTable;
+                sortedRows.clear();
+            }
+        }
+        return table;
+    }
+
+    @NonNull
+    private int[] getSortedRows(@NonNull final SongTable table, @NonNull final String sortOrder) {
+        int[] rows = sortedRows.get(sortOrder);
+        if (rows != null) return rows;
+
+        // let the media store do the sorting, it has the collation keys
+        Cursor cursor = SongLoader.makeSongCursor(context, null, null, sortOrder, new String[]{BaseColumns._ID});
+        if (cursor == null) {
+            rows = new int[table.size()];
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = i;
+            }
+            return rows;
+        }
+
+        rows = new int[cursor.getCount()];
+        int count = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                int row = table.indexOf(cursor.getLong(0));
+                // the song was added after the table was updated, it will be part of the next update
+                if (row >= 0 && count < rows.length) {
+                    rows[count++] = row;
+                }
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        if (count != rows.length) {
+            int[] trimmedRows = new int[count];
+            System.arraycopy(rows, 0, trimmedRows, 0, count);
+            rows = trimmedRows;
+        }
+        sortedRows.put(sortOrder, rows);
+        return rows;
+    }
+
+    /**
+     * @return the updated table, the same table if nothing changed, or null if the media store could not be queried.
+     */
+    @Nullable
+    private SongTable update(@NonNull final SongTable oldTable) {
+        Cursor cursor = SongLoader.makeSongCursor(context, null, null, BaseColumns._ID, new String[]{BaseColumns._ID, AudioColumns.DATE_MODIFIED});
+        if (cursor == null) return null;
+
+        final int count = cursor.getCount();
+        final long[] ids = new long[count];
+        final int[] oldRows = new int[count];
+        final long[] changedIds = new long[count];
+        int changedCount = 0;
+        int read = 0;
+        if (cursor.moveToFirst()) {
+            do {
+                final long id = cursor.getLong(0);
+                final int oldRow = oldTable.indexOf(id);
+                ids[read] = id;
+                if (oldRow >= 0 && oldTable.datesModified[oldRow] == cursor.getLong(1)) {
+                    oldRows[read] = oldRow;
+                } else {
+                    oldRows[read] = -1;
+                    changedIds[changedCount++] = id;
+                }
+                read++;
+            } while (cursor.moveToNext() && read < count);
+        }
+        cursor.close();
+
+        if (changedCount == 0 && read == oldTable.size()) {
+            // same ids with the same modification dates
+            return oldTable;
+        }
+
+        final SongTable changedRows = readRows(changedIds, changedCount);
+        if (changedRows == null) return null;
+
+        final SongTable newTable = new SongTable(read);
+        for (int i = 0; i < read; i++) {
+            if (oldRows[i] >= 0) {
+                newTable.appendFromTable(oldTable, oldRows[i]);
+            } else {
+                int row = changedRows.indexOf(ids[i]);
+                // the song might have been deleted in the meantime
+                if (row >= 0) {
+                    newTable.appendFromTable(changedRows, row);
+                }
+            }
+        }
+        newTable.finishBuilding();
+        return newTable;
+    }
+
+    @Nullable
+    private SongTable readRows(@NonNull final long[] ids, final int count) {
+        final SongTable rows = new SongTable(count);
+        for (int start = 0; start < count; start += SongLoader.MAX_SELECTION_ARGS) {
+            final int end = Math.min(count, start + SongLoader.MAX_SELECTION_ARGS);
+
+            final StringBuilder selection = new StringBuilder(BaseColumns._ID + " IN (");
+            final String[] selectionValues = new String[end - start];
+            for (int i = start; i < end; i++) {
+                selection.append(i == start ? "?" : ",?");
+                selectionValues[i - start] = String.valueOf(ids[i]);
+            }
+            selection.append(")");
+
+            Cursor cursor = SongLoader.makeSongCursor(context, selection.toString(), selectionValues, BaseColumns._ID);
+            if (cursor == null) return null;
+            if (cursor.moveToFirst()) {
+                do {
+                    // the ids are sorted and the chunks are read in order, so the rows stay sorted by id
+                    if (rows.size() < count) {
+                        rows.appendFromCursor(cursor);
+                    }
+                } while (cursor.moveToNext());
+            }
+            cursor.close();
+        }
+        return rows;
+    }
+
+    interface RowFilter {
+        boolean accept(@NonNull SongTable table, int row);
+    }
+}
@@ -5,6 +5,7 @@ import android.database.Cursor;
 import android.provider.BaseColumns;
 import android.provider.MediaStore;
 import android.provider.MediaStore.Audio.AudioColumns;
+import android.util.LongSparseArray;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -13,6 +14,7 @@ import com.kabouzeid.gramophone.provider.BlacklistStore;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -34,16 +36,19 @@ public class SongLoader {
             AudioColumns.ARTIST,// 10
     };
 
+    // stay well below SQLITE_MAX_VARIABLE_NUMBER
+    static final int MAX_SELECTION_ARGS = 500;
+
     @NonNull
     public static List<Song> getAllSongs(@NonNull Context context) {
-        Cursor cursor = makeSongCursor(context, null, null);
-        return getSongs(cursor);
+        return LibrarySnapshot.getInstance(context).getSongs(PreferenceUtil.getInstance(context).getSongSortOrder());
     }
 
     @NonNull
     public static List<Song> getSongs(@NonNull final Context context, final String query) {
-        Cursor cursor = makeSongCursor(context, AudioColumns.TITLE + " LIKE ?", new String[]{"%" + query + "%"});
-        return getSongs(cursor);
+        final String lowerCaseQuery = LibrarySnapshot.toLowerCase(query);
+        return LibrarySnapshot.getInstance(context).getSongs(PreferenceUtil.getInstance(context).getSongSortOrder(),
+                (table, row) -> LibrarySnapshot.containsIgnoreCase(table.titles[row], lowerCaseQuery));
     }
 
     @NonNull
@@ -52,6 +57,51 @@ public class SongLoader {
         return getSong(cursor);
     }
 
+    /**
+     * @return the songs with the given ids in the same order, ids that are not in the media store (anymore) are skipped.
+     */
+    @NonNull
+    public static List<Song> getSongs(@NonNull final Context context, @NonNull final long[] ids) {
+        final long[] sortedIds = ids.clone();
+        Arrays.sort(sortedIds);
+
+        final LongSparseArray<Song> songsById = new LongSparseArray<>(ids.length);
+        int start = 0;
+        while (start < sortedIds.length) {
+            final StringBuilder selection = new StringBuilder(BaseColumns._ID + " IN (");
+            final List<String> selectionValues = new ArrayList<>(MAX_SELECTION_ARGS);
+            int i = start;
+            for (; i < sortedIds.length && selectionValues.size() < MAX_SELECTION_ARGS; i++) {
+                if (i > start && sortedIds[i] == sortedIds[i - 1]) continue;
+                selection.append(selectionValues.isEmpty() ? "?" : ",?");
+                selectionValues.add(String.valueOf(sortedIds[i]));
+            }
+            selection.append(")");
+            start = i;
+
+            // sorted by id, so the sparse array only has to append
+            Cursor cursor = makeSongCursor(context, selection.toString(), selectionValues.toArray(new String[0]), BaseColumns._ID);
+            if (cursor != null && cursor.moveToFirst()) {
+                do {
+                    Song song = getSongFromCursorImpl(cursor);
+                    songsById.append(song.id, song);
+                } while (cursor.moveToNext());
+            }
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+
+        final List<Song> songs = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            Song song = songsById.get(id);
+            if (song != null) {
+                songs.add(song);
+            }
+        }
+        return songs;
+    }
+
     @NonNull
     public static List<Song> getSongs(@Nullable final Cursor cursor) {
         List<Song> songs = new ArrayList<>();
@@ -104,6 +154,11 @@ public class SongLoader {
 
     @Nullable
     public static Cursor makeSongCursor(@NonNull final Context context, @Nullable String selection, String[] selectionValues, final String sortOrder) {
+        return makeSongCursor(context, selection, selectionValues, sortOrder, BASE_PROJECTION);
+    }
+
+    @Nullable
+    static Cursor makeSongCursor(@NonNull final Context context, @Nullable String selection, String[] selectionValues, final String sortOrder, @NonNull final String[] projection) {
         if (selection != null && !selection.trim().equals("")) {
             selection = BASE_SELECTION + " AND " + selection;
         } else {
@@ -119,7 +174,7 @@ public class SongLoader {
 
         try {
             return context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                    BASE_PROJECTION, selection, selectionValues, sortOrder);
+                    projection, selection, selectionValues, sortOrder);
         } catch (SecurityException e) {
             return null;
         }
@@ -0,0 +1,88 @@
+package com.kabouzeid.gramophone.loader;
+
+import androidx.annotation.NonNull;
+
+import com.kabouzeid.gramophone.model.Song;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * Read-only list of the songs in some rows of a {@link SongTable}.
+ * <p>
+ * Only the row indices are held, the {@link Song} of a row is created the first time it is accessed through this list
+ * and then kept for as long as the list lives. Lookups compare the id column first, so they don't create songs for rows that don't match.
+ */
+class SongRows extends AbstractList<Song> implements RandomAccess {
+    @NonNull
+    final SongTable table;
+    // might be shared with other lists, must not be modified
+    @NonNull
+    final int[] rows;
+
+    // created on first access, racing threads at worst create the same song twice
+    private Song[] songs;
+
+    SongRows(@NonNull SongTable table, @NonNull int[] rows) {
+        this.table = table;
+        this.rows = rows;
+    }
+
+    @Override
+    public Song get(int index) {
+        Song[] songs = this.songs;
+        if (songs == null) {
+            songs = new Song[rows.length];
+            this.songs = songs;
+        }
+        Song song = songs[index];
+        if (song == null) {
+            song = table.getSong(rows[index]);
+            songs[index] = song;
+        }
+        return song;
+    }
+
+    @Override
+    public int size() {
+        return rows.length;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        if (!(o instanceof Song)) return -1;
+        final long id = ((Song) o).id;
+        for (int i = 0; i < rows.length; i++) {
+            if (table.ids[rows[i]] == id && o.equals(get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int lastIndexOf(Object o) {
+        if (!(o instanceof Song)) return -1;
+        final long id = ((Song) o).id;
+        for (int i = rows.length - 1; i >= 0; i--) {
+            if (table.ids[rows[i]] == id && o.equals(get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(o) >= 0;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o instanceof SongRows && ((SongRows) o).table == table) {
+            return Arrays.equals(((SongRows) o).rows, rows);
+        }
+        return super.equals(o);
+    }
+}
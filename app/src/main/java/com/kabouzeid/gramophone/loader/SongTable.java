@@ -0,0 +1,141 @@
+package com.kabouzeid.gramophone.loader;
+
+import android.database.Cursor;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kabouzeid.gramophone.model.Song;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Columnar copy of the rows of {@link SongLoader#BASE_PROJECTION}, sorted by song id.
+ * <p>
+ * Album and artist names repeat for every track, so they are dictionary encoded and each distinct name is only held once.
+ * No {@link Song} is kept, lists of songs are handed out as {@link SongRows} which only create the songs that are accessed.
+ * <p>
+ * A table is only written to while it is being built, {@link #finishBuilding()} is called before it is handed out.
+ */
+class SongTable {
+    static final SongTable EMPTY = new SongTable(0);
+
+    final long[] ids;
+    final String[] titles;
+    final int[] trackNumbers;
+    final int[] years;
+    final long[] durations;
+    final String[] data;
+    final long[] datesModified;
+    final long[] albumIds;
+    final int[] albumNameCodes;
+    final long[] artistIds;
+    final int[] artistNameCodes;
+
+    private final ArrayList<String> dictionary = new ArrayList<>();
+    // only needed to encode the names while rows are appended
+    @Nullable
+    private Map<String, Integer> dictionaryCodes = new HashMap<>();
+
+    private int size;
+
+    SongTable(int capacity) {
+        ids = new long[capacity];
+        titles = new String[capacity];
+        trackNumbers = new int[capacity];
+        years = new int[capacity];
+        durations = new long[capacity];
+        data = new String[capacity];
+        datesModified = new long[capacity];
+        albumIds = new long[capacity];
+        albumNameCodes = new int[capacity];
+        artistIds = new long[capacity];
+        artistNameCodes = new int[capacity];
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the row of the song with the given id or a negative value if there is none.
+     */
+    int indexOf(long id) {
+        return Arrays.binarySearch(ids, 0, size, id);
+    }
+
+    @Nullable
+    String getAlbumName(int row) {
+        return decode(albumNameCodes[row]);
+    }
+
+    @Nullable
+    String getArtistName(int row) {
+        return decode(artistNameCodes[row]);
+    }
+
+    @NonNull
+    Song getSong(int row) {
+        return new Song(ids[row], titles[row], trackNumbers[row], years[row], durations[row], data[row], datesModified[row], albumIds[row], getAlbumName(row), artistIds[row], getArtistName(row));
+    }
+
+    /**
+     * Appends the current row of a cursor over {@link SongLoader#BASE_PROJECTION}.
+     */
+    void appendFromCursor(@NonNull Cursor cursor) {
+        final int row = size++;
+        ids[row] = cursor.getLong(0);
+        titles[row] = cursor.getString(1);
+        trackNumbers[row] = cursor.getInt(2);
+        years[row] = cursor.getInt(3);
+        durations[row] = cursor.getLong(4);
+        data[row] = cursor.getString(5);
+        datesModified[row] = cursor.getLong(6);
+        albumIds[row] = cursor.getLong(7);
+        albumNameCodes[row] = encode(cursor.getString(8));
+        artistIds[row] = cursor.getLong(9);
+        artistNameCodes[row] = encode(cursor.getString(10));
+    }
+
+    void appendFromTable(@NonNull SongTable table, int row) {
+        final int newRow = size++;
+        ids[newRow] = table.ids[row];
+        titles[newRow] = table.titles[row];
+        trackNumbers[newRow] = table.trackNumbers[row];
+        years[newRow] = table.years[row];
+        durations[newRow] = table.durations[row];
+        data[newRow] = table.data[row];
+        datesModified[newRow] = table.datesModified[row];
+        albumIds[newRow] = table.albumIds[row];
+        albumNameCodes[newRow] = encode(table.getAlbumName(row));
+        artistIds[newRow] = table.artistIds[row];
+        artistNameCodes[newRow] = encode(table.getArtistName(row));
+    }
+
+    /**
+     * Drops what is only needed to append rows, no rows can be appended afterwards.
+     */
+    void finishBuilding() {
+        dictionaryCodes = null;
+        dictionary.trimToSize();
+    }
+
+    private int encode(@Nullable String value) {
+        if (value == null) return -1;
+        if (dictionaryCodes == null) throw new IllegalStateException("The table was already built");
+        Integer code = dictionaryCodes.get(value);
+        if (code == null) {
+            code = dictionary.size();
+            dictionary.add(value);
+            dictionaryCodes.put(value, code);
+        }
+        return code;
+    }
+
+    @Nullable
+    private String decode(int code) {
+        return code < 0 ? null : dictionary.get(code);
+    }
+}
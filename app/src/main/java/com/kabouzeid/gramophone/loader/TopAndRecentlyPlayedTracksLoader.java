@@ -18,8 +18,6 @@ package com.kabouzeid.gramophone.loader;
 
 import android.content.Context;
 import android.database.Cursor;
-import android.provider.BaseColumns;
-import android.provider.MediaStore;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
@@ -35,109 +33,62 @@ public class TopAndRecentlyPlayedTracksLoader {
 
     @NonNull
     public static List<Song> getRecentlyPlayedTracks(@NonNull Context context) {
-        return SongLoader.getSongs(makeRecentTracksCursorAndClearUpDatabase(context));
+        final HistoryStore historyStore = HistoryStore.getInstance(context);
+        final long[] ids = getIds(historyStore.queryRecentIds(), HistoryStore.RecentStoreColumns.ID);
+        final List<Song> songs = SongLoader.getSongs(context, ids);
+
+        // clean up the database with any ids not found
+        for (long id : getMissingIds(ids, songs)) {
+            historyStore.removeSongId(id);
+        }
+        return songs;
     }
 
     @NonNull
     public static List<Song> getTopTracks(@NonNull Context context) {
-        return SongLoader.getSongs(makeTopTracksCursorAndClearUpDatabase(context));
-    }
-
-    @Nullable
-    public static Cursor makeRecentTracksCursorAndClearUpDatabase(@NonNull final Context context) {
-        SortedLongCursor retCursor = makeRecentTracksCursorImpl(context);
+        final SongPlayCountStore songPlayCountStore = SongPlayCountStore.getInstance(context);
+        final long[] ids = getIds(songPlayCountStore.getTopPlayedResults(NUMBER_OF_TOP_TRACKS), SongPlayCountStore.SongPlayCountColumns.ID);
+        final List<Song> songs = SongLoader.getSongs(context, ids);
 
-        // clean up the databases with any ids not found
-        if (retCursor != null) {
-            List<Long> missingIds = retCursor.getMissingIds();
-            if (missingIds != null && missingIds.size() > 0) {
-                for (long id : missingIds) {
-                    HistoryStore.getInstance(context).removeSongId(id);
-                }
-            }
+        // clean up the database with any ids not found
+        for (long id : getMissingIds(ids, songs)) {
+            songPlayCountStore.removeItem(id);
         }
-        return retCursor;
+        return songs;
     }
 
-    @Nullable
-    public static Cursor makeTopTracksCursorAndClearUpDatabase(@NonNull final Context context) {
-        SortedLongCursor retCursor = makeTopTracksCursorImpl(context);
-
-        // clean up the databases with any ids not found
-        if (retCursor != null) {
-            List<Long> missingIds = retCursor.getMissingIds();
-            if (missingIds != null && missingIds.size() > 0) {
-                for (long id : missingIds) {
-                    SongPlayCountStore.getInstance(context).removeItem(id);
-                }
-            }
+    @NonNull
+    private static long[] getIds(@Nullable final Cursor cursor, @NonNull final String columnName) {
+        if (cursor == null) {
+            return new long[0];
         }
-        return retCursor;
-    }
-
-    @Nullable
-    private static SortedLongCursor makeRecentTracksCursorImpl(@NonNull final Context context) {
-        // first get the top results ids from the internal database
-        Cursor songs = HistoryStore.getInstance(context).queryRecentIds();
-
         try {
-            return makeSortedCursor(context, songs,
-                    songs.getColumnIndex(HistoryStore.RecentStoreColumns.ID));
-        } finally {
-            if (songs != null) {
-                songs.close();
+            final int idColumn = cursor.getColumnIndex(columnName);
+            final long[] ids = new long[cursor.getCount()];
+            while (cursor.moveToNext()) {
+                ids[cursor.getPosition()] = cursor.getLong(idColumn);
             }
-        }
-    }
-
-    @Nullable
-    private static SortedLongCursor makeTopTracksCursorImpl(@NonNull final Context context) {
-        // first get the top results ids from the internal database
-        Cursor songs = SongPlayCountStore.getInstance(context).getTopPlayedResults(NUMBER_OF_TOP_TRACKS);
-
-        try {
-            return makeSortedCursor(context, songs,
-                    songs.getColumnIndex(SongPlayCountStore.SongPlayCountColumns.ID));
+            return ids;
         } finally {
-            if (songs != null) {
-                songs.close();
-            }
+            cursor.close();
         }
     }
 
-    @Nullable
-    private static SortedLongCursor makeSortedCursor(@NonNull final Context context, @Nullable final Cursor cursor, final int idColumn) {
-        if (cursor != null && cursor.moveToFirst()) {
-            // create the list of ids to select against
-            StringBuilder selection = new StringBuilder();
-            selection.append(BaseColumns._ID);
-            selection.append(" IN (");
-
-            // this tracks the order of the ids
-            long[] order = new long[cursor.getCount()];
-
-            long id = cursor.getLong(idColumn);
-            selection.append(id);
-            order[cursor.getPosition()] = id;
-
-            while (cursor.moveToNext()) {
-                selection.append(",");
-
-                id = cursor.getLong(idColumn);
-                order[cursor.getPosition()] = id;
-                selection.append(String.valueOf(id));
-            }
-
-            selection.append(")");
-
-            // get a list of songs with the data given the selection statement
-            Cursor songCursor = SongLoader.makeSongCursor(context, selection.toString(), null);
-            if (songCursor != null) {
-                // now return the wrapped TopTracksCursor to handle sorting given order
-                return new SortedLongCursor(songCursor, order, BaseColumns._ID);
+    /**
+     * @param ids   distinct ids
+     * @param songs the songs of the ids in the same order, without the missing ones
+     */
+    @NonNull
+    private static List<Long> getMissingIds(@NonNull final long[] ids, @NonNull final List<Song> songs) {
+        final List<Long> missingIds = new ArrayList<>(ids.length - songs.size());
+        int songIndex = 0;
+        for (long id : ids) {
+            if (songIndex < songs.size() && songs.get(songIndex).id == id) {
+                songIndex++;
+            } else {
+                missingIds.add(id);
             }
         }
-
-        return null;
+        return missingIds;
     }
 }
@@ -7,6 +7,7 @@ import android.net.Uri;
 import android.widget.Toast;
 
 import com.kabouzeid.gramophone.R;
+import com.kabouzeid.gramophone.glide.palette.LibraryPaletteGenerator;
 
 import java.lang.ref.WeakReference;
 
@@ -47,6 +48,9 @@ public class UpdateToastMediaScannerCompletionListener implements MediaScannerCo
                 String text = " " + String.format(scannedFiles, scanned, toBeScanned.length) + (failed > 0 ? " " + String.format(couldNotScanFiles, failed) : "");
                 toast.setText(text);
                 toast.show();
+                if (scanned + failed == toBeScanned.length) {
+                    LibraryPaletteGenerator.start(activity);
+                }
             });
         }
     }
@@ -0,0 +1,136 @@
+package com.kabouzeid.gramophone.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps which picture was extracted from each audio file, together with the modification date of the file at that time.
+ * That is either the digest of its embedded picture or the path of the image in its folder.
+ */
+public class CoverHashStore extends SQLiteOpenHelper {
+    public static final String DATABASE_NAME = "cover_hashes.db";
+    private static final int VERSION = 2;
+
+    @Nullable
+    private static CoverHashStore sInstance = null;
+
+    public CoverHashStore(final Context context) {
+        super(context, DATABASE_NAME, null, VERSION);
+    }
+
+    @NonNull
+    public static synchronized CoverHashStore getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new CoverHashStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(@NonNull final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + CoverHashStoreColumns.NAME + " ("
+                + CoverHashStoreColumns.PATH + " TEXT PRIMARY KEY, "
+                + CoverHashStoreColumns.DATE_MODIFIED + " INTEGER NOT NULL, "
+                + CoverHashStoreColumns.PICTURE_DIGEST + " TEXT, "
+                + CoverHashStoreColumns.FOLDER_IMAGE_PATH + " TEXT);");
+    }
+
+    @Override
+    public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + CoverHashStoreColumns.NAME);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + CoverHashStoreColumns.NAME);
+        onCreate(db);
+    }
+
+    /**
+     * @return file path -> the picture of that file.
+     */
+    @NonNull
+    public Map<String, CoverHash> getCoverHashes() {
+        final Map<String, CoverHash> coverHashes = new HashMap<>();
+        final Cursor cursor = getReadableDatabase().query(CoverHashStoreColumns.NAME,
+                new String[]{CoverHashStoreColumns.PATH, CoverHashStoreColumns.DATE_MODIFIED, CoverHashStoreColumns.PICTURE_DIGEST, CoverHashStoreColumns.FOLDER_IMAGE_PATH},
+                null, null, null, null, null);
+        if (cursor == null) return coverHashes;
+        if (cursor.moveToFirst()) {
+            do {
+                coverHashes.put(cursor.getString(0), new CoverHash(cursor.getLong(1), cursor.getString(2), cursor.getString(3)));
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+        return coverHashes;
+    }
+
+    public void putCoverHash(@NonNull final String path, @NonNull final CoverHash coverHash) {
+        final ContentValues values = new ContentValues(4);
+        values.put(CoverHashStoreColumns.PATH, path);
+        values.put(CoverHashStoreColumns.DATE_MODIFIED, coverHash.dateModified);
+        values.put(CoverHashStoreColumns.PICTURE_DIGEST, coverHash.pictureDigest);
+        values.put(CoverHashStoreColumns.FOLDER_IMAGE_PATH, coverHash.folderImagePath);
+        getWritableDatabase().insertWithOnConflict(CoverHashStoreColumns.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Exactly one of pictureDigest and folderImagePath is set.
+     */
+    public static class CoverHash {
+        public final long dateModified;
+        // hex digest of the embedded picture
+        @Nullable
+        public final String pictureDigest;
+        // the image is read again when used, so only its path is kept
+        @Nullable
+        public final String folderImagePath;
+
+        public CoverHash(long dateModified, @Nullable String pictureDigest, @Nullable String folderImagePath) {
+            this.dateModified = dateModified;
+            this.pictureDigest = pictureDigest;
+            this.folderImagePath = folderImagePath;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+
+            CoverHash that = (CoverHash) o;
+
+            if (dateModified != that.dateModified) return false;
+            if (pictureDigest != null ? !pictureDigest.equals(that.pictureDigest) : that.pictureDigest != null) return false;
+            return folderImagePath != null ? folderImagePath.equals(that.folderImagePath) : that.folderImagePath == null;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = (int) (dateModified ^ (dateModified >>> 32));
+            result = 31 * result + (pictureDigest != null ? pictureDigest.hashCode() : 0);
+            result = 31 * result + (folderImagePath != null ? folderImagePath.hashCode() : 0);
+            return result;
+        }
+    }
+
+    public interface CoverHashStoreColumns {
+        String NAME = "cover_hashes";
+
+        String PATH = "path";
+
+        String DATE_MODIFIED = "date_modified";
+
+        String PICTURE_DIGEST = "picture_digest";
+
+        String FOLDER_IMAGE_PATH = "folder_image_path";
+    }
+}
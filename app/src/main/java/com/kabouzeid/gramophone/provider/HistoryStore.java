@@ -16,24 +16,55 @@
 
 package com.kabouzeid.gramophone.provider;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-public class HistoryStore extends SQLiteOpenHelper {
-    private static final int MAX_ITEMS_IN_DB = 100;
+import com.kabouzeid.gramophone.util.PreferenceUtil;
+
+import java.util.Arrays;
 
+/**
+ * Keeps the most recently played songs in a ring buffer in memory.
+ * <p>
+ * Every play is appended to the database as a new row, replaced and evicted entries are only removed from it
+ * once it has grown to twice the history size, by rewriting it from memory.
+ */
+public class HistoryStore extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "history.db";
     private static final int VERSION = 1;
     @Nullable
     private static HistoryStore sInstance = null;
 
+    private final Context context;
+
+    private boolean loaded;
+    private int capacity;
+    // the buffer has twice the capacity, so slots freed by replaced entries only have to be compacted once in a while
+    private long[] ids;
+    private long[] timesPlayed;
+    // song id -> slot in the buffer, open addressing with linear probing and at most half full, free entries have the id -1
+    private long[] slotKeys;
+    private int[] slotValues;
+    // number of entries in the history
+    private int size;
+    // slot of the oldest entry
+    private int first;
+    // slots in use from the first one on, including the freed ones
+    private int used;
+    private int rowsInDb;
+
+    @Nullable
+    private SQLiteStatement insertStatement;
+
     public HistoryStore(final Context context) {
         super(context, DATABASE_NAME, null, VERSION);
+        this.context = context;
     }
 
     @Override
@@ -63,84 +94,259 @@ public class HistoryStore extends SQLiteOpenHelper {
         return sInstance;
     }
 
-    public void addSongId(final long songId) {
+    /**
+     * Should not be called on the ui thread.
+     */
+    public synchronized void addSongId(final long songId) {
         if (songId == -1) {
             return;
         }
+        loadIfNecessary();
 
-        final SQLiteDatabase database = getWritableDatabase();
-        database.beginTransaction();
-
-        try {
-            // remove previous entries
-            removeSongId(songId);
-
-            // add the entry
-            final ContentValues values = new ContentValues(2);
-            values.put(RecentStoreColumns.ID, songId);
-            values.put(RecentStoreColumns.TIME_PLAYED, System.currentTimeMillis());
-            database.insert(RecentStoreColumns.NAME, null, values);
-
-            // if our db is too large, delete the extra items
-            Cursor oldest = null;
-            try {
-                oldest = database.query(RecentStoreColumns.NAME,
-                        new String[]{RecentStoreColumns.TIME_PLAYED}, null, null, null, null,
-                        RecentStoreColumns.TIME_PLAYED + " ASC");
-
-                if (oldest != null && oldest.getCount() > MAX_ITEMS_IN_DB) {
-                    oldest.moveToPosition(oldest.getCount() - MAX_ITEMS_IN_DB);
-                    long timeOfRecordToKeep = oldest.getLong(0);
-
-                    database.delete(RecentStoreColumns.NAME,
-                            RecentStoreColumns.TIME_PLAYED + " < ?",
-                            new String[]{String.valueOf(timeOfRecordToKeep)});
+        final long timePlayed = System.currentTimeMillis();
+        add(songId, timePlayed);
 
-                }
-            } finally {
-                if (oldest != null) {
-                    oldest.close();
-                }
-            }
-        } finally {
-            database.setTransactionSuccessful();
-            database.endTransaction();
+        if (rowsInDb >= 2 * capacity) {
+            rewriteDatabase();
+        } else {
+            final SQLiteStatement statement = getInsertStatement();
+            statement.bindLong(1, songId);
+            statement.bindLong(2, timePlayed);
+            statement.executeInsert();
+            rowsInDb++;
         }
     }
 
-    public void removeSongId(final long songId) {
+    public synchronized void removeSongId(final long songId) {
+        loadIfNecessary();
+        remove(songId);
+
         final SQLiteDatabase database = getWritableDatabase();
-        database.delete(RecentStoreColumns.NAME, RecentStoreColumns.ID + " = ?", new String[]{
+        rowsInDb -= database.delete(RecentStoreColumns.NAME, RecentStoreColumns.ID + " = ?", new String[]{
                 String.valueOf(songId)
         });
-
     }
 
-    public void clear() {
+    public synchronized void clear() {
+        loadIfNecessary();
+        Arrays.fill(slotKeys, -1);
+        size = 0;
+        used = 0;
+
         final SQLiteDatabase database = getWritableDatabase();
         database.delete(RecentStoreColumns.NAME, null, null);
+        rowsInDb = 0;
     }
 
-    public boolean contains(long id) {
-        final SQLiteDatabase database = getReadableDatabase();
-        Cursor cursor = database.query(RecentStoreColumns.NAME,
-                new String[]{RecentStoreColumns.ID},
-                RecentStoreColumns.ID + "=?",
-                new String[]{String.valueOf(id)},
-                null, null, null, null);
+    public synchronized boolean contains(long id) {
+        loadIfNecessary();
+        return indexOfSlotKey(id) >= 0;
+    }
+
+    /**
+     * @return the ids of the songs in the history, most recently played first.
+     */
+    @NonNull
+    public synchronized Cursor queryRecentIds() {
+        loadIfNecessary();
 
-        boolean containsId = cursor != null && cursor.moveToFirst();
-        if (cursor != null) {
-            cursor.close();
+        final MatrixCursor cursor = new MatrixCursor(new String[]{RecentStoreColumns.ID}, size);
+        for (int i = used - 1; i >= 0; i--) {
+            final int slot = slot(i);
+            if (ids[slot] != -1) {
+                cursor.addRow(new Object[]{ids[slot]});
+            }
         }
-        return containsId;
+        return cursor;
     }
 
-    public Cursor queryRecentIds() {
+    private void loadIfNecessary() {
+        final int historySize = PreferenceUtil.getInstance(context).getHistorySize();
+        if (loaded) {
+            if (historySize != capacity) {
+                resize(historySize);
+            }
+            return;
+        }
+        loaded = true;
+
+        capacity = historySize;
+        ids = new long[2 * capacity];
+        timesPlayed = new long[2 * capacity];
+        clearSlots();
+
         final SQLiteDatabase database = getReadableDatabase();
-        return database.query(RecentStoreColumns.NAME,
-                new String[]{RecentStoreColumns.ID}, null, null, null, null,
-                RecentStoreColumns.TIME_PLAYED + " DESC");
+        final Cursor cursor = database.query(RecentStoreColumns.NAME,
+                new String[]{RecentStoreColumns.ID, RecentStoreColumns.TIME_PLAYED}, null, null, null, null,
+                RecentStoreColumns.TIME_PLAYED + " ASC");
+        if (cursor == null) return;
+        if (cursor.moveToFirst()) {
+            do {
+                add(cursor.getLong(0), cursor.getLong(1));
+            } while (cursor.moveToNext());
+        }
+        rowsInDb = cursor.getCount();
+        cursor.close();
+    }
+
+    private void add(final long songId, final long timePlayed) {
+        remove(songId);
+        if (size == capacity) {
+            removeOldest();
+        }
+        if (used == ids.length) {
+            compact();
+        }
+
+        final int slot = slot(used++);
+        ids[slot] = songId;
+        timesPlayed[slot] = timePlayed;
+        putSlot(songId, slot);
+    }
+
+    private void remove(final long songId) {
+        final int index = indexOfSlotKey(songId);
+        if (index >= 0) {
+            ids[slotValues[index]] = -1;
+            removeSlotAt(index);
+        }
+    }
+
+    private void removeOldest() {
+        while (used > 0) {
+            final long songId = ids[first];
+            first = (first + 1) % ids.length;
+            used--;
+            if (songId != -1) {
+                removeSlotAt(indexOfSlotKey(songId));
+                return;
+            }
+        }
+    }
+
+    /**
+     * Moves the remaining entries to the start of the buffer, freshly sized for the capacity.
+     */
+    private void compact() {
+        final long[] newIds = new long[2 * capacity];
+        final long[] newTimesPlayed = new long[2 * capacity];
+        clearSlots();
+        int count = 0;
+        for (int i = 0; i < used; i++) {
+            final int slot = slot(i);
+            if (ids[slot] != -1) {
+                newIds[count] = ids[slot];
+                newTimesPlayed[count] = timesPlayed[slot];
+                putSlot(ids[slot], count);
+                count++;
+            }
+        }
+        ids = newIds;
+        timesPlayed = newTimesPlayed;
+        first = 0;
+        used = count;
+    }
+
+    private void resize(final int newCapacity) {
+        capacity = newCapacity;
+        while (size > capacity) {
+            removeOldest();
+        }
+        compact();
+    }
+
+    private int slot(final int index) {
+        return (first + index) % ids.length;
+    }
+
+    /**
+     * Empties the slot map and sizes it for the current capacity.
+     */
+    private void clearSlots() {
+        final int length = Integer.highestOneBit(2 * capacity - 1) << 1;
+        if (slotKeys == null || slotKeys.length != length) {
+            slotKeys = new long[length];
+            slotValues = new int[length];
+        }
+        Arrays.fill(slotKeys, -1);
+        size = 0;
+    }
+
+    private int home(final long songId) {
+        return (int) ((songId * 0x9E3779B97F4A7C15L) >>> 32) & (slotKeys.length - 1);
+    }
+
+    private int indexOfSlotKey(final long songId) {
+        final int mask = slotKeys.length - 1;
+        for (int i = home(songId); slotKeys[i] != -1; i = (i + 1) & mask) {
+            if (slotKeys[i] == songId) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The song id must not be in the map yet.
+     */
+    private void putSlot(final long songId, final int slot) {
+        final int mask = slotKeys.length - 1;
+        int i = home(songId);
+        while (slotKeys[i] != -1) {
+            i = (i + 1) & mask;
+        }
+        slotKeys[i] = songId;
+        slotValues[i] = slot;
+        size++;
+    }
+
+    private void removeSlotAt(int index) {
+        final int mask = slotKeys.length - 1;
+        // move the following entries of the probe sequence back into the gap, so lookups don't stop early at it
+        for (int i = (index + 1) & mask; slotKeys[i] != -1; i = (i + 1) & mask) {
+            final int home = home(slotKeys[i]);
+            final boolean homeBetween = index <= i ? index < home && home <= i : index < home || home <= i;
+            if (!homeBetween) {
+                slotKeys[index] = slotKeys[i];
+                slotValues[index] = slotValues[i];
+                index = i;
+            }
+        }
+        slotKeys[index] = -1;
+        size--;
+    }
+
+    /**
+     * Replaces all rows in the database with the entries currently in memory.
+     */
+    private void rewriteDatabase() {
+        final SQLiteDatabase database = getWritableDatabase();
+        final SQLiteStatement statement = getInsertStatement();
+        database.beginTransaction();
+        try {
+            database.delete(RecentStoreColumns.NAME, null, null);
+            for (int i = 0; i < used; i++) {
+                final int slot = slot(i);
+                if (ids[slot] != -1) {
+                    statement.bindLong(1, ids[slot]);
+                    statement.bindLong(2, timesPlayed[slot]);
+                    statement.executeInsert();
+                }
+            }
+            database.setTransactionSuccessful();
+            rowsInDb = size;
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    @NonNull
+    private SQLiteStatement getInsertStatement() {
+        if (insertStatement == null) {
+            insertStatement = getWritableDatabase().compileStatement("INSERT INTO " + RecentStoreColumns.NAME + " ("
+                    + RecentStoreColumns.ID + ", " + RecentStoreColumns.TIME_PLAYED + ") VALUES (?, ?)");
+        }
+        return insertStatement;
     }
 
     public interface RecentStoreColumns {
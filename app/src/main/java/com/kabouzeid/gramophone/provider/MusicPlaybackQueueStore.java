@@ -15,26 +15,35 @@
 */
 package com.kabouzeid.gramophone.provider;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.provider.BaseColumns;
-import android.provider.MediaStore.Audio.AudioColumns;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
 
-import com.kabouzeid.gramophone.loader.SongLoader;
 import com.kabouzeid.gramophone.model.Song;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 import java.util.List;
 
 /**
  * @author Andrew Neal, modified for Phonograph by Karim Abou Zeid
  *         <p/>
  *         This keeps track of the music playback and history state of the playback service
+ *         <p/>
+ *         Only the song ids of the queues are stored, in a small binary snapshot file that is replaced atomically and read back in one go.
+ *         Edits are appended to a journal as the range of ids they replaced, the journal is merged into a new snapshot once it outgrows it.
+ *         The songs are loaded from the media store again when the queues are restored.
+ *         The database is only opened to take over the queues that were saved by older versions, it is deleted once they are in a snapshot.
  */
 public class MusicPlaybackQueueStore extends SQLiteOpenHelper {
     @Nullable
@@ -42,7 +51,40 @@ public class MusicPlaybackQueueStore extends SQLiteOpenHelper {
     public static final String DATABASE_NAME = "music_playback_state.db";
     public static final String PLAYING_QUEUE_TABLE_NAME = "playing_queue";
     public static final String ORIGINAL_PLAYING_QUEUE_TABLE_NAME = "original_playing_queue";
-    private static final int VERSION = 4;
+    // the queues are only stored in the snapshot and the journal since this version
+    private static final int VERSION = 6;
+    // the last version that stored the song ids with their ordinal
+    private static final int VERSION_ID_ROWS = 5;
+    // the last version that stored the complete song metadata
+    private static final int VERSION_FULL_SONG_ROWS = 4;
+
+    private static final String SNAPSHOT_FILE_NAME = "playing_queues.bin";
+    private static final int SNAPSHOT_MAGIC = 0x50515332;
+    private static final int SNAPSHOT_HEADER_SIZE = 4 * 4;
+
+    private static final String JOURNAL_FILE_NAME = "playing_queues.journal";
+    private static final int JOURNAL_MAGIC = 0x50514a31;
+    private static final int JOURNAL_HEADER_SIZE = 2 * 4;
+    private static final int JOURNAL_RECORD_HEADER_SIZE = 4 * 4;
+    private static final int JOURNAL_PLAYING_QUEUE = 0;
+    private static final int JOURNAL_ORIGINAL_PLAYING_QUEUE = 1;
+    // small journals are kept even if the snapshot is smaller, so short queues don't get rewritten on every edit
+    private static final int MIN_JOURNAL_COMPACTION_SIZE = 16 * 1024;
+
+    private final Context context;
+    private final AtomicFile snapshotFile;
+    private final File journalFile;
+
+    // incremented with every snapshot, a journal is only replayed onto the snapshot it was started for
+    private int generation;
+    private long snapshotLength;
+    private long journalLength;
+
+    // the song ids as they are currently saved
+    @Nullable
+    private long[] playingQueueIds;
+    @Nullable
+    private long[] originalPlayingQueueIds;
 
     /**
      * Constructor of <code>MusicPlaybackState</code>
@@ -51,6 +93,9 @@ public class MusicPlaybackQueueStore extends SQLiteOpenHelper {
      */
     public MusicPlaybackQueueStore(final Context context) {
         super(context, DATABASE_NAME, null, VERSION);
+        this.context = context;
+        snapshotFile = new AtomicFile(new File(context.getFilesDir(), SNAPSHOT_FILE_NAME));
+        journalFile = new File(context.getFilesDir(), JOURNAL_FILE_NAME);
     }
 
     @Override
@@ -60,56 +105,50 @@ public class MusicPlaybackQueueStore extends SQLiteOpenHelper {
     }
 
     private void createTable(@NonNull final SQLiteDatabase db, final String tableName) {
-        //noinspection StringBufferReplaceableByString
-        StringBuilder builder = new StringBuilder();
-        builder.append("CREATE TABLE IF NOT EXISTS ");
-        builder.append(tableName);
-        builder.append("(");
-
-        builder.append(BaseColumns._ID);
-        builder.append(" LONG NOT NULL,");
-
-        builder.append(AudioColumns.TITLE);
-        builder.append(" STRING NOT NULL,");
-
-        builder.append(AudioColumns.TRACK);
-        builder.append(" INT NOT NULL,");
-
-        builder.append(AudioColumns.YEAR);
-        builder.append(" INT NOT NULL,");
-
-        builder.append(AudioColumns.DURATION);
-        builder.append(" LONG NOT NULL,");
-
-        builder.append(AudioColumns.DATA);
-        builder.append(" STRING NOT NULL,");
-
-        builder.append(AudioColumns.DATE_MODIFIED);
-        builder.append(" LONG NOT NULL,");
-
-        builder.append(AudioColumns.ALBUM_ID);
-        builder.append(" LONG NOT NULL,");
-
-        builder.append(AudioColumns.ALBUM);
-        builder.append(" STRING NOT NULL,");
-
-        builder.append(AudioColumns.ARTIST_ID);
-        builder.append(" LONG NOT NULL,");
-
-        builder.append(AudioColumns.ARTIST);
-        builder.append(" STRING NOT NULL);");
-
-        db.execSQL(builder.toString());
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + tableName + "("
+                + MusicPlaybackQueueColumns.ORDINAL + " INT NOT NULL,"
+                + MusicPlaybackQueueColumns.ID + " LONG NOT NULL);");
     }
 
     @Override
     public void onUpgrade(@NonNull final SQLiteDatabase db, final int oldVersion, final int newVersion) {
-        // not necessary yet
+        // the rows are read into a snapshot right after this
+        if (oldVersion == VERSION_ID_ROWS) {
+            return;
+        }
+        if (oldVersion == VERSION_FULL_SONG_ROWS) {
+            migrateFromFullSongRows(db, PLAYING_QUEUE_TABLE_NAME);
+            migrateFromFullSongRows(db, ORIGINAL_PLAYING_QUEUE_TABLE_NAME);
+            return;
+        }
         db.execSQL("DROP TABLE IF EXISTS " + PLAYING_QUEUE_TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + ORIGINAL_PLAYING_QUEUE_TABLE_NAME);
         onCreate(db);
     }
 
+    /**
+     * Keeps the queue of the old table format, which stored all the song metadata in insertion order.
+     */
+    private void migrateFromFullSongRows(@NonNull final SQLiteDatabase db, final String tableName) {
+        final String oldTableName = tableName + "_old";
+        db.execSQL("ALTER TABLE " + tableName + " RENAME TO " + oldTableName);
+        createTable(db, tableName);
+
+        final Cursor cursor = db.query(oldTableName, new String[]{BaseColumns._ID}, null, null, null, null, "rowid");
+        if (cursor != null) {
+            final SQLiteStatement insert = compileInsertStatement(db, tableName);
+            int ordinal = 0;
+            while (cursor.moveToNext()) {
+                insert.bindLong(1, ordinal++);
+                insert.bindLong(2, cursor.getLong(0));
+                insert.executeInsert();
+            }
+            insert.close();
+            cursor.close();
+        }
+        db.execSQL("DROP TABLE IF EXISTS " + oldTableName);
+    }
+
     @Override
     public void onDowngrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
         // If we ever have downgrade, drop the table to be safe
@@ -131,72 +170,298 @@ public class MusicPlaybackQueueStore extends SQLiteOpenHelper {
     }
 
     public synchronized void saveQueues(@NonNull final List<Song> playingQueue, @NonNull final List<Song> originalPlayingQueue) {
-        saveQueue(PLAYING_QUEUE_TABLE_NAME, playingQueue);
-        saveQueue(ORIGINAL_PLAYING_QUEUE_TABLE_NAME, originalPlayingQueue);
+        final long[] newPlayingQueueIds = getIds(playingQueue);
+        final long[] newOriginalPlayingQueueIds = getIds(originalPlayingQueue);
+
+        loadIdsIfNecessary();
+        final byte[] playingQueueChange = getChange(JOURNAL_PLAYING_QUEUE, playingQueueIds, newPlayingQueueIds);
+        final byte[] originalPlayingQueueChange = getChange(JOURNAL_ORIGINAL_PLAYING_QUEUE, originalPlayingQueueIds, newOriginalPlayingQueueIds);
+        if (playingQueueChange.length == 0 && originalPlayingQueueChange.length == 0) {
+            return;
+        }
+
+        final long changesLength = playingQueueChange.length + originalPlayingQueueChange.length;
+        final boolean saved;
+        // the journal needs a snapshot to be replayed onto
+        if (snapshotLength == 0 || journalLength + changesLength > Math.max(MIN_JOURNAL_COMPACTION_SIZE, snapshotLength)) {
+            saved = writeSnapshot(newPlayingQueueIds, newOriginalPlayingQueueIds);
+        } else {
+            // a failed append might have left a partial record behind, the snapshot replaces it
+            saved = appendToJournal(playingQueueChange, originalPlayingQueueChange) || writeSnapshot(newPlayingQueueIds, newOriginalPlayingQueueIds);
+        }
+        if (saved) {
+            playingQueueIds = newPlayingQueueIds;
+            originalPlayingQueueIds = newOriginalPlayingQueueIds;
+        }
+    }
+
+    @NonNull
+    private static long[] getIds(@NonNull final List<Song> queue) {
+        final long[] ids = new long[queue.size()];
+        int i = 0;
+        for (Song song : queue) {
+            ids[i++] = song.id;
+        }
+        return ids;
     }
 
     /**
-     * Clears the existing database and saves the queue into the db so that when the
-     * app is restarted, the tracks you were listening to is restored
-     *
-     * @param queue the queue to save
+     * @return a journal record that replaces the range of ids that differs between the two versions, or nothing if they are equal.
+     */
+    @NonNull
+    private static byte[] getChange(final int queue, @NonNull final long[] ids, @NonNull final long[] newIds) {
+        final int commonLength = Math.min(ids.length, newIds.length);
+        int start = 0;
+        while (start < commonLength && ids[start] == newIds[start]) {
+            start++;
+        }
+        int commonSuffixLength = 0;
+        while (commonSuffixLength < commonLength - start
+                && ids[ids.length - 1 - commonSuffixLength] == newIds[newIds.length - 1 - commonSuffixLength]) {
+            commonSuffixLength++;
+        }
+        final int removedCount = ids.length - start - commonSuffixLength;
+        final int insertedCount = newIds.length - start - commonSuffixLength;
+        if (removedCount == 0 && insertedCount == 0) {
+            return new byte[0];
+        }
+
+        final ByteBuffer record = ByteBuffer.allocate(JOURNAL_RECORD_HEADER_SIZE + 8 * insertedCount);
+        record.putInt(queue);
+        record.putInt(start);
+        record.putInt(removedCount);
+        record.putInt(insertedCount);
+        record.asLongBuffer().put(newIds, start, insertedCount);
+        return record.array();
+    }
+
+    /**
+     * @return the song ids of the saved playing queue, including the ones of songs that don't exist anymore.
+     */
+    @NonNull
+    public long[] getSavedPlayingQueueIds() {
+        return getSavedIds(true).clone();
+    }
+
+    /**
+     * @return the song ids of the saved original playing queue, including the ones of songs that don't exist anymore.
      */
-    private synchronized void saveQueue(final String tableName, @NonNull final List<Song> queue) {
+    @NonNull
+    public long[] getSavedOriginalPlayingQueueIds() {
+        return getSavedIds(false).clone();
+    }
+
+    @NonNull
+    private synchronized long[] getSavedIds(boolean playingQueue) {
+        loadIdsIfNecessary();
+        return playingQueue ? playingQueueIds : originalPlayingQueueIds;
+    }
+
+    private void loadIdsIfNecessary() {
+        if (playingQueueIds != null && originalPlayingQueueIds != null) return;
+        if (readSnapshot()) {
+            // the queues of the database are either in the snapshot already or older than it
+            if (context.getDatabasePath(DATABASE_NAME).exists()) {
+                context.deleteDatabase(DATABASE_NAME);
+            }
+            return;
+        }
+
+        // no snapshot yet, take over the queues from the database of an older version if there is one
+        if (!context.getDatabasePath(DATABASE_NAME).exists()) {
+            playingQueueIds = new long[0];
+            originalPlayingQueueIds = new long[0];
+            return;
+        }
         final SQLiteDatabase database = getWritableDatabase();
-        database.beginTransaction();
+        playingQueueIds = readIds(database, PLAYING_QUEUE_TABLE_NAME);
+        originalPlayingQueueIds = readIds(database, ORIGINAL_PLAYING_QUEUE_TABLE_NAME);
+        if ((playingQueueIds.length == 0 && originalPlayingQueueIds.length == 0)
+                || writeSnapshot(playingQueueIds, originalPlayingQueueIds)) {
+            close();
+            context.deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    /**
+     * The snapshot is made of a header (magic number, generation, playing queue size, original playing queue size)
+     * followed by the song ids of the playing queue and then the ones of the original playing queue, in queue order.
+     * It replaces the journal.
+     */
+    private boolean writeSnapshot(@NonNull final long[] playingQueueIds, @NonNull final long[] originalPlayingQueueIds) {
+        final ByteBuffer buffer = ByteBuffer.allocate(SNAPSHOT_HEADER_SIZE + 8 * (playingQueueIds.length + originalPlayingQueueIds.length));
+        buffer.putInt(SNAPSHOT_MAGIC);
+        buffer.putInt(generation + 1);
+        buffer.putInt(playingQueueIds.length);
+        buffer.putInt(originalPlayingQueueIds.length);
+        buffer.asLongBuffer().put(playingQueueIds).put(originalPlayingQueueIds);
+
+        FileOutputStream out = null;
+        try {
+            out = snapshotFile.startWrite();
+            out.write(buffer.array());
+            snapshotFile.finishWrite(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (out != null) {
+                snapshotFile.failWrite(out);
+            }
+            return false;
+        }
+
+        // a journal that is left behind belongs to the previous generation and is ignored
+        generation++;
+        snapshotLength = buffer.capacity();
+        journalLength = 0;
+        //noinspection ResultOfMethodCallIgnored
+        journalFile.delete();
+        return true;
+    }
+
+    /**
+     * The journal is made of a header (magic number, generation of the snapshot) followed by records
+     * (queue, start, count of removed ids, count of inserted ids) which are each followed by the inserted ids.
+     */
+    private boolean appendToJournal(@NonNull final byte[]... changes) {
+        final boolean newJournal = journalLength == 0;
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(journalFile, !newJournal);
+            long writtenLength = 0;
+            if (newJournal) {
+                out.write(ByteBuffer.allocate(JOURNAL_HEADER_SIZE).putInt(JOURNAL_MAGIC).putInt(generation).array());
+                writtenLength += JOURNAL_HEADER_SIZE;
+            }
+            for (byte[] change : changes) {
+                out.write(change);
+                writtenLength += change.length;
+            }
+            out.getFD().sync();
+            journalLength += writtenLength;
+            return true;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private boolean readSnapshot() {
+        final byte[] bytes;
+        try {
+            bytes = snapshotFile.readFully();
+        } catch (IOException e) {
+            // also thrown if there is no snapshot yet
+            return false;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < SNAPSHOT_HEADER_SIZE || buffer.getInt() != SNAPSHOT_MAGIC) return false;
+        final int snapshotGeneration = buffer.getInt();
+        final int playingQueueSize = buffer.getInt();
+        final int originalPlayingQueueSize = buffer.getInt();
+        if (playingQueueSize < 0 || originalPlayingQueueSize < 0
+                || bytes.length != SNAPSHOT_HEADER_SIZE + 8L * (playingQueueSize + originalPlayingQueueSize)) {
+            return false;
+        }
+
+        final LongBuffer ids = buffer.asLongBuffer();
+        playingQueueIds = new long[playingQueueSize];
+        originalPlayingQueueIds = new long[originalPlayingQueueSize];
+        ids.get(playingQueueIds).get(originalPlayingQueueIds);
+        generation = snapshotGeneration;
+        snapshotLength = bytes.length;
+        readJournal();
+        return true;
+    }
 
+    /**
+     * Applies the edits that were saved after the snapshot.
+     */
+    private void readJournal() {
+        journalLength = 0;
+        if (!journalFile.exists()) return;
+        RandomAccessFile file = null;
         try {
-            database.delete(tableName, null, null);
-            database.setTransactionSuccessful();
+            file = new RandomAccessFile(journalFile, "rw");
+            final byte[] bytes = new byte[(int) file.length()];
+            file.readFully(bytes);
+
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            if (bytes.length < JOURNAL_HEADER_SIZE || buffer.getInt() != JOURNAL_MAGIC || buffer.getInt() != generation) return;
+            journalLength = JOURNAL_HEADER_SIZE;
+            while (buffer.remaining() >= JOURNAL_RECORD_HEADER_SIZE) {
+                final int queue = buffer.getInt();
+                final int start = buffer.getInt();
+                final int removedCount = buffer.getInt();
+                final int insertedCount = buffer.getInt();
+                final long[] ids = queue == JOURNAL_PLAYING_QUEUE ? playingQueueIds : originalPlayingQueueIds;
+                // a record that was only written partly ends the journal
+                if ((queue != JOURNAL_PLAYING_QUEUE && queue != JOURNAL_ORIGINAL_PLAYING_QUEUE) || start < 0 || removedCount < 0 || insertedCount < 0
+                        || (long) start + removedCount > ids.length || buffer.remaining() < 8L * insertedCount) {
+                    break;
+                }
+
+                final long[] newIds = new long[ids.length - removedCount + insertedCount];
+                System.arraycopy(ids, 0, newIds, 0, start);
+                buffer.asLongBuffer().get(newIds, start, insertedCount);
+                buffer.position(buffer.position() + 8 * insertedCount);
+                System.arraycopy(ids, start + removedCount, newIds, start + insertedCount, ids.length - start - removedCount);
+                if (queue == JOURNAL_PLAYING_QUEUE) {
+                    playingQueueIds = newIds;
+                } else {
+                    originalPlayingQueueIds = newIds;
+                }
+                journalLength = buffer.position();
+            }
+            // later records are appended right after the last complete one
+            if (journalLength < bytes.length) {
+                file.setLength(journalLength);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            journalLength = 0;
         } finally {
-            database.endTransaction();
-        }
-
-        final int NUM_PROCESS = 20;
-        int position = 0;
-        while (position < queue.size()) {
-            database.beginTransaction();
-            try {
-                for (int i = position; i < queue.size() && i < position + NUM_PROCESS; i++) {
-                    Song song = queue.get(i);
-                    ContentValues values = new ContentValues(4);
-
-                    values.put(BaseColumns._ID, song.id);
-                    values.put(AudioColumns.TITLE, song.title);
-                    values.put(AudioColumns.TRACK, song.trackNumber);
-                    values.put(AudioColumns.YEAR, song.year);
-                    values.put(AudioColumns.DURATION, song.duration);
-                    values.put(AudioColumns.DATA, song.data);
-                    values.put(AudioColumns.DATE_MODIFIED, song.dateModified);
-                    values.put(AudioColumns.ALBUM_ID, song.albumId);
-                    values.put(AudioColumns.ALBUM, song.albumName);
-                    values.put(AudioColumns.ARTIST_ID, song.artistId);
-                    values.put(AudioColumns.ARTIST, song.artistName);
-
-                    database.insert(tableName, null, values);
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ignored) {
                 }
-                database.setTransactionSuccessful();
-            } finally {
-                database.endTransaction();
-                position += NUM_PROCESS;
             }
         }
     }
 
     @NonNull
-    public List<Song> getSavedPlayingQueue() {
-        return getQueue(PLAYING_QUEUE_TABLE_NAME);
+    private static SQLiteStatement compileInsertStatement(@NonNull final SQLiteDatabase database, final String tableName) {
+        return database.compileStatement("INSERT INTO " + tableName + " ("
+                + MusicPlaybackQueueColumns.ORDINAL + "," + MusicPlaybackQueueColumns.ID + ") VALUES (?,?)");
     }
 
     @NonNull
-    public List<Song> getSavedOriginalPlayingQueue() {
-        return getQueue(ORIGINAL_PLAYING_QUEUE_TABLE_NAME);
+    private static long[] readIds(@NonNull final SQLiteDatabase database, final String tableName) {
+        final Cursor cursor = database.query(tableName, new String[]{MusicPlaybackQueueColumns.ID},
+                null, null, null, null, MusicPlaybackQueueColumns.ORDINAL);
+        if (cursor == null) {
+            return new long[0];
+        }
+        final long[] ids = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext() && i < ids.length) {
+            ids[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        return ids;
     }
 
-    @NonNull
-    private List<Song> getQueue(@NonNull final String tableName) {
-        Cursor cursor = getReadableDatabase().query(tableName, null,
-                null, null, null, null, null);
-        return SongLoader.getSongs(cursor);
+    public interface MusicPlaybackQueueColumns {
+        String ORDINAL = "ordinal";
+
+        String ID = BaseColumns._ID;
     }
 }
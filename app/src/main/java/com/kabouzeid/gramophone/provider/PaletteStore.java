@@ -0,0 +1,193 @@
+package com.kabouzeid.gramophone.provider;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.util.LruCache;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.palette.graphics.Palette;
+import androidx.palette.graphics.Target;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Keeps the palettes generated for covers, so a cover that was seen before does not need to be analyzed again.
+ * <p>
+ * Only the swatches (color and population) are stored, the palette is rebuilt from them which is a lot cheaper than generating it from the bitmap.
+ * A cover without any swatches is stored as well, it has no palette.
+ */
+public class PaletteStore extends SQLiteOpenHelper {
+    public static final String DATABASE_NAME = "palettes.db";
+    private static final int VERSION = 1;
+    private static final int MEMORY_CACHE_SIZE = 64;
+
+    @Nullable
+    private static PaletteStore sInstance = null;
+
+    private final LruCache<String, StoredPalette> memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+
+    public PaletteStore(final Context context) {
+        super(context, DATABASE_NAME, null, VERSION);
+    }
+
+    @NonNull
+    public static synchronized PaletteStore getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new PaletteStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    @Override
+    public void onCreate(@NonNull final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + PaletteStoreColumns.NAME + " ("
+                + PaletteStoreColumns.KEY + " TEXT PRIMARY KEY, "
+                + PaletteStoreColumns.SWATCHES + " BLOB NOT NULL);");
+    }
+
+    @Override
+    public void onUpgrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + PaletteStoreColumns.NAME);
+        onCreate(db);
+    }
+
+    @Override
+    public void onDowngrade(@NonNull SQLiteDatabase db, int oldVersion, int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + PaletteStoreColumns.NAME);
+        onCreate(db);
+    }
+
+    /**
+     * @return the palette of the cover, or null if it has none or if it is not in the store, see {@link #contains(String)}.
+     */
+    @Nullable
+    public Palette getPalette(@NonNull final String key) {
+        final StoredPalette storedPalette = getStoredPalette(key);
+        return storedPalette != null ? storedPalette.palette : null;
+    }
+
+    public boolean contains(@NonNull final String key) {
+        return getStoredPalette(key) != null;
+    }
+
+    @Nullable
+    private StoredPalette getStoredPalette(@NonNull final String key) {
+        StoredPalette storedPalette = memoryCache.get(key);
+        if (storedPalette != null) return storedPalette;
+
+        final SQLiteDatabase database = getReadableDatabase();
+        final Cursor cursor = database.query(PaletteStoreColumns.NAME,
+                new String[]{PaletteStoreColumns.SWATCHES},
+                PaletteStoreColumns.KEY + "=?",
+                new String[]{key},
+                null, null, null, null);
+        if (cursor == null) return null;
+
+        if (cursor.moveToFirst()) {
+            storedPalette = new StoredPalette(createPalette(decodeSwatches(cursor.getBlob(0))));
+            memoryCache.put(key, storedPalette);
+        }
+        cursor.close();
+        return storedPalette;
+    }
+
+    public void putPalette(@NonNull final String key, @NonNull final Palette palette) {
+        memoryCache.put(key, new StoredPalette(palette.getSwatches().isEmpty() ? null : palette));
+
+        final ContentValues values = new ContentValues(2);
+        values.put(PaletteStoreColumns.KEY, key);
+        values.put(PaletteStoreColumns.SWATCHES, encodeSwatches(palette.getSwatches()));
+        getWritableDatabase().insertWithOnConflict(PaletteStoreColumns.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Removes the palettes of all covers that are not in use anymore.
+     */
+    public void retainAll(@NonNull final Set<String> keys) {
+        final SQLiteDatabase database = getWritableDatabase();
+        final List<String> staleKeys = new ArrayList<>();
+        final Cursor cursor = database.query(PaletteStoreColumns.NAME,
+                new String[]{PaletteStoreColumns.KEY}, null, null, null, null, null);
+        if (cursor == null) return;
+        if (cursor.moveToFirst()) {
+            do {
+                final String key = cursor.getString(0);
+                if (!keys.contains(key)) {
+                    staleKeys.add(key);
+                }
+            } while (cursor.moveToNext());
+        }
+        cursor.close();
+
+        if (staleKeys.isEmpty()) return;
+        database.beginTransaction();
+        try {
+            for (String key : staleKeys) {
+                database.delete(PaletteStoreColumns.NAME, PaletteStoreColumns.KEY + "=?", new String[]{key});
+                memoryCache.remove(key);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * @return a palette with the same targets as one generated from a bitmap, or null if there are no swatches.
+     */
+    @Nullable
+    private static Palette createPalette(@NonNull final List<Palette.Swatch> swatches) {
+        if (swatches.isEmpty()) return null;
+        return new Palette.Builder(swatches)
+                .addTarget(Target.LIGHT_VIBRANT)
+                .addTarget(Target.VIBRANT)
+                .addTarget(Target.DARK_VIBRANT)
+                .addTarget(Target.LIGHT_MUTED)
+                .addTarget(Target.MUTED)
+                .addTarget(Target.DARK_MUTED)
+                .generate();
+    }
+
+    @NonNull
+    private static byte[] encodeSwatches(@NonNull final List<Palette.Swatch> swatches) {
+        final ByteBuffer buffer = ByteBuffer.allocate(swatches.size() * 2 * 4);
+        for (Palette.Swatch swatch : swatches) {
+            buffer.putInt(swatch.getRgb());
+            buffer.putInt(swatch.getPopulation());
+        }
+        return buffer.array();
+    }
+
+    @NonNull
+    private static List<Palette.Swatch> decodeSwatches(@NonNull final byte[] bytes) {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        final List<Palette.Swatch> swatches = new ArrayList<>(bytes.length / (2 * 4));
+        while (buffer.remaining() >= 2 * 4) {
+            swatches.add(new Palette.Swatch(buffer.getInt(), buffer.getInt()));
+        }
+        return swatches;
+    }
+
+    private static class StoredPalette {
+        @Nullable
+        final Palette palette;
+
+        StoredPalette(@Nullable Palette palette) {
+            this.palette = palette;
+        }
+    }
+
+    public interface PaletteStoreColumns {
+        String NAME = "palettes";
+
+        String KEY = "cover_key";
+
+        String SWATCHES = "swatches";
+    }
+}
@@ -0,0 +1,164 @@
+package com.kabouzeid.gramophone.provider;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.core.util.AtomicFile;
+
+import com.kabouzeid.gramophone.service.MusicService;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the position in the queue, the position in the current track and the shuffle and repeat mode of the playback service.
+ * <p>
+ * Changes are only held in memory until {@link #flush()} is called, which writes all of them at once as one small record.
+ * This way frequent changes (e.g. while seeking) are coalesced into a single write.
+ */
+public class PlaybackStateStore {
+    private static final String FILE_NAME = "playback_state.bin";
+    private static final int MAGIC = 0x50535431;
+    private static final int RECORD_SIZE = 5 * 4;
+
+    @Nullable
+    private static PlaybackStateStore sInstance = null;
+
+    private final Context context;
+    private final AtomicFile file;
+
+    private boolean loaded;
+    private boolean dirty;
+
+    private int position = -1;
+    private int positionInTrack = -1;
+    private int shuffleMode;
+    private int repeatMode;
+
+    private PlaybackStateStore(@NonNull final Context context) {
+        this.context = context;
+        file = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    @NonNull
+    public static synchronized PlaybackStateStore getInstance(@NonNull final Context context) {
+        if (sInstance == null) {
+            sInstance = new PlaybackStateStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public synchronized int getPosition() {
+        loadIfNecessary();
+        return position;
+    }
+
+    public synchronized void setPosition(int position) {
+        loadIfNecessary();
+        if (this.position != position) {
+            this.position = position;
+            dirty = true;
+        }
+    }
+
+    public synchronized int getPositionInTrack() {
+        loadIfNecessary();
+        return positionInTrack;
+    }
+
+    public synchronized void setPositionInTrack(int positionInTrack) {
+        loadIfNecessary();
+        if (this.positionInTrack != positionInTrack) {
+            this.positionInTrack = positionInTrack;
+            dirty = true;
+        }
+    }
+
+    public synchronized int getShuffleMode() {
+        loadIfNecessary();
+        return shuffleMode;
+    }
+
+    public synchronized void setShuffleMode(int shuffleMode) {
+        loadIfNecessary();
+        if (this.shuffleMode != shuffleMode) {
+            this.shuffleMode = shuffleMode;
+            dirty = true;
+        }
+    }
+
+    public synchronized int getRepeatMode() {
+        loadIfNecessary();
+        return repeatMode;
+    }
+
+    public synchronized void setRepeatMode(int repeatMode) {
+        loadIfNecessary();
+        if (this.repeatMode != repeatMode) {
+            this.repeatMode = repeatMode;
+            dirty = true;
+        }
+    }
+
+    /**
+     * Writes the current state if it changed since the last flush. Should not be called on the ui thread.
+     */
+    public void flush() {
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+        synchronized (this) {
+            if (!dirty) return;
+            record.putInt(MAGIC);
+            record.putInt(position);
+            record.putInt(positionInTrack);
+            record.putInt(shuffleMode);
+            record.putInt(repeatMode);
+            dirty = false;
+        }
+
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            out.write(record.array());
+            file.finishWrite(out);
+        } catch (IOException e) {
+            e.printStackTrace();
+            if (out != null) {
+                file.failWrite(out);
+            }
+            synchronized (this) {
+                dirty = true;
+            }
+        }
+    }
+
+    private void loadIfNecessary() {
+        if (loaded) return;
+        loaded = true;
+
+        try {
+            final byte[] bytes = file.readFully();
+            final ByteBuffer record = ByteBuffer.wrap(bytes);
+            if (bytes.length == RECORD_SIZE && record.getInt() == MAGIC) {
+                position = record.getInt();
+                positionInTrack = record.getInt();
+                shuffleMode = record.getInt();
+                repeatMode = record.getInt();
+                return;
+            }
+        } catch (IOException ignored) {
+            // there is no state saved yet
+        }
+
+        // take over the state older versions saved in the default preferences
+        final SharedPreferences preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        position = preferences.getInt(MusicService.SAVED_POSITION, -1);
+        positionInTrack = preferences.getInt(MusicService.SAVED_POSITION_IN_TRACK, -1);
+        shuffleMode = preferences.getInt(MusicService.SAVED_SHUFFLE_MODE, 0);
+        repeatMode = preferences.getInt(MusicService.SAVED_REPEAT_MODE, 0);
+        dirty = true;
+    }
+}
@@ -19,16 +19,25 @@ package com.kabouzeid.gramophone.provider;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import android.util.LongSparseArray;
 import android.view.animation.AccelerateInterpolator;
 import android.view.animation.Interpolator;
 
+import java.util.Arrays;
+
 /**
  * This database tracks the number of play counts for an individual song.  This is used to drive
  * the top played tracks as well as the playlist images
+ * <p>
+ * The whole table is kept in memory once it has been read. Play counts are only shifted to the current week
+ * when a song is played again, scores are calculated from the week the counts are relative to.
+ * <p>
+ * Bumped play counts are only kept in memory until {@link #flush()} writes all of them in a single transaction.
  */
 public class SongPlayCountStore extends SQLiteOpenHelper {
     @Nullable
@@ -55,22 +64,35 @@ public class SongPlayCountStore extends SQLiteOpenHelper {
     @SuppressWarnings("FieldCanBeLocal")
     private static int ONE_WEEK_IN_MS = 1000 * 60 * 60 * 24 * 7;
 
+    // index of the entry in the in-memory play counts that holds the week they are relative to
+    private static final int LAST_UPDATED_WEEK_INDEX = NUM_WEEKS;
+
+    private static final float[] WEEK_SCORE_MULTIPLIERS = new float[NUM_WEEKS];
+
+    static {
+        for (int i = 0; i < NUM_WEEKS; i++) {
+            WEEK_SCORE_MULTIPLIERS[i] = getScoreMultiplierForWeek(i);
+        }
+    }
+
     @NonNull
     private static String WHERE_ID_EQUALS = SongPlayCountColumns.ID + "=?";
 
+    // song id -> play counts of the last NUM_WEEKS weeks, followed by the week they are relative to
+    // (index 0 is the count of that week, index 1 the one of the week before and so on)
+    @Nullable
+    private LongSparseArray<int[]> mPlayCounts;
+
+    // entries that were bumped since the last flush, shared with mPlayCounts once the table has been read
+    @NonNull
+    private final LongSparseArray<int[]> mDirtyEntries = new LongSparseArray<>();
+
     // number of weeks since epoch time
     private int mNumberOfWeeksSinceEpoch;
 
-    // used to track if we've walked through the db and updated all the rows
-    private boolean mDatabaseUpdated;
-
     public SongPlayCountStore(final Context context) {
         super(context, DATABASE_NAME, null, VERSION);
-
-        long msSinceEpoch = System.currentTimeMillis();
-        mNumberOfWeeksSinceEpoch = (int) (msSinceEpoch / ONE_WEEK_IN_MS);
-
-        mDatabaseUpdated = false;
+        updateCurrentWeek();
     }
 
     @Override
@@ -125,147 +147,72 @@ public class SongPlayCountStore extends SQLiteOpenHelper {
     }
 
     /**
-     * Increases the play count of a song by 1
+     * Increases the play count of a song by 1, it is written to the database on the next {@link #flush()}
      *
      * @param songId The song id to increase the play count
      */
-    public void bumpPlayCount(final long songId) {
+    public synchronized void bumpPlayCount(final long songId) {
         if (songId == -1) {
             return;
         }
 
-        final SQLiteDatabase database = getWritableDatabase();
-        updateExistingRow(database, songId, true);
-    }
+        updateCurrentWeek();
 
-    /**
-     * This creates a new entry that indicates a song has been played once as well as its score
-     *
-     * @param database a write able database
-     * @param songId   the id of the track
-     */
-    private void createNewPlayedEntry(@NonNull final SQLiteDatabase database, final long songId) {
-        // no row exists, create a new one
-        float newScore = getScoreMultiplierForWeek(0);
-        int newPlayCount = 1;
-
-        final ContentValues values = new ContentValues(3);
-        values.put(SongPlayCountColumns.ID, songId);
-        values.put(SongPlayCountColumns.PLAY_COUNT_SCORE, newScore);
-        values.put(SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX, mNumberOfWeeksSinceEpoch);
-        values.put(getColumnNameForWeek(0), newPlayCount);
-
-        database.insert(SongPlayCountColumns.NAME, null, values);
+        int[] entry = mDirtyEntries.get(songId);
+        if (entry == null) {
+            // don't read the whole table just to bump a single song
+            entry = mPlayCounts != null ? mPlayCounts.get(songId) : readEntry(getReadableDatabase(), songId);
+        }
+        if (entry == null) {
+            entry = new int[LAST_UPDATED_WEEK_INDEX + 1];
+            entry[LAST_UPDATED_WEEK_INDEX] = mNumberOfWeeksSinceEpoch;
+            if (mPlayCounts != null) {
+                mPlayCounts.put(songId, entry);
+            }
+        } else {
+            shiftToCurrentWeek(entry);
+        }
+        entry[0]++;
+        mDirtyEntries.put(songId, entry);
     }
 
     /**
-     * This function will take a song entry and update it to the latest week and increase the count
-     * for the current week by 1 if necessary
-     *
-     * @param database  a writeable database
-     * @param id        the id of the track to bump
-     * @param bumpCount whether to bump the current's week play count by 1 and adjust the score
+     * Writes the play counts that were bumped since the last call in a single transaction.
      */
-    private void updateExistingRow(@NonNull final SQLiteDatabase database, final long id, boolean bumpCount) {
-        String stringId = String.valueOf(id);
+    public synchronized void flush() {
+        if (mDirtyEntries.size() == 0) {
+            return;
+        }
 
-        // begin the transaction
+        updateCurrentWeek();
+        final SQLiteDatabase database = getWritableDatabase();
+        final ContentValues values = new ContentValues(NUM_WEEKS + 3);
         database.beginTransaction();
-
-        // get the cursor of this content inside the transaction
-        final Cursor cursor = database.query(SongPlayCountColumns.NAME, null, WHERE_ID_EQUALS,
-                new String[]{stringId}, null, null, null);
-
-        // if we have a result
-        if (cursor != null && cursor.moveToFirst()) {
-            // figure how many weeks since we last updated
-            int lastUpdatedIndex = cursor.getColumnIndex(SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX);
-            int lastUpdatedWeek = cursor.getInt(lastUpdatedIndex);
-            int weekDiff = mNumberOfWeeksSinceEpoch - lastUpdatedWeek;
-
-            // if it's more than the number of weeks we track, delete it and create a new entry
-            if (Math.abs(weekDiff) >= NUM_WEEKS) {
-                // this entry needs to be dropped since it is too outdated
-                deleteEntry(database, stringId);
-                if (bumpCount) {
-                    createNewPlayedEntry(database, id);
-                }
-            } else if (weekDiff != 0) {
-                // else, shift the weeks
-                int[] playCounts = new int[NUM_WEEKS];
-
-                if (weekDiff > 0) {
-                    // time is shifted forwards
-                    for (int i = 0; i < NUM_WEEKS - weekDiff; i++) {
-                        playCounts[i + weekDiff] = cursor.getInt(getColumnIndexForWeek(i));
-                    }
-                } else if (weekDiff < 0) {
-                    // time is shifted backwards (by user) - nor typical behavior but we
-                    // will still handle it
-
-                    // since weekDiff is -ve, NUM_WEEKS + weekDiff is the real # of weeks we have to
-                    // transfer.  Then we transfer the old week i - weekDiff to week i
-                    // for example if the user shifted back 2 weeks, ie -2, then for 0 to
-                    // NUM_WEEKS + (-2) we set the new week i = old week i - (-2) or i+2
-                    for (int i = 0; i < NUM_WEEKS + weekDiff; i++) {
-                        playCounts[i] = cursor.getInt(getColumnIndexForWeek(i - weekDiff));
-                    }
-                }
-
-                // bump the count
-                if (bumpCount) {
-                    playCounts[0]++;
-                }
-
-                float score = calculateScore(playCounts);
-
-                // if the score is non-existant, then delete it
-                if (score < .01f) {
-                    deleteEntry(database, stringId);
-                } else {
-                    // create the content values
-                    ContentValues values = new ContentValues(NUM_WEEKS + 2);
-                    values.put(SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX, mNumberOfWeeksSinceEpoch);
-                    values.put(SongPlayCountColumns.PLAY_COUNT_SCORE, score);
-
-                    for (int i = 0; i < NUM_WEEKS; i++) {
-                        values.put(getColumnNameForWeek(i), playCounts[i]);
-                    }
-
-                    // update the entry
-                    database.update(SongPlayCountColumns.NAME, values, WHERE_ID_EQUALS,
-                            new String[]{stringId});
+        try {
+            for (int i = 0; i < mDirtyEntries.size(); i++) {
+                final int[] entry = mDirtyEntries.valueAt(i);
+                values.put(SongPlayCountColumns.ID, mDirtyEntries.keyAt(i));
+                for (int week = 0; week < NUM_WEEKS; week++) {
+                    values.put(getColumnNameForWeek(week), entry[week]);
                 }
-            } else if (bumpCount) {
-                // else no shifting, just update the scores
-                ContentValues values = new ContentValues(2);
-
-                // increase the score by a single score amount
-                int scoreIndex = cursor.getColumnIndex(SongPlayCountColumns.PLAY_COUNT_SCORE);
-                float score = cursor.getFloat(scoreIndex) + getScoreMultiplierForWeek(0);
-                values.put(SongPlayCountColumns.PLAY_COUNT_SCORE, score);
-
-                // increase the play count by 1
-                values.put(getColumnNameForWeek(0), cursor.getInt(getColumnIndexForWeek(0)) + 1);
-
-                // update the entry
-                database.update(SongPlayCountColumns.NAME, values, WHERE_ID_EQUALS,
-                        new String[]{stringId});
+                values.put(SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX, entry[LAST_UPDATED_WEEK_INDEX]);
+                values.put(SongPlayCountColumns.PLAY_COUNT_SCORE, calculateScore(entry));
+                database.insertWithOnConflict(SongPlayCountColumns.NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
             }
-
-            cursor.close();
-        } else if (bumpCount) {
-            // if we have no existing results, create a new one
-            createNewPlayedEntry(database, id);
+            database.setTransactionSuccessful();
+            mDirtyEntries.clear();
+        } finally {
+            database.endTransaction();
         }
-
-        database.setTransactionSuccessful();
-        database.endTransaction();
     }
 
-    public void clear() {
+    public synchronized void clear() {
         final SQLiteDatabase database = getWritableDatabase();
         database.delete(SongPlayCountColumns.NAME, null, null);
+        mDirtyEntries.clear();
+        if (mPlayCounts != null) {
+            mPlayCounts.clear();
+        }
     }
 
     /**
@@ -275,87 +222,209 @@ public class SongPlayCountStore extends SQLiteOpenHelper {
      * @param numResults number of results to limit by.  If <= 0 it returns all results
      * @return the top tracks
      */
-    public Cursor getTopPlayedResults(int numResults) {
-        updateResults();
+    public synchronized Cursor getTopPlayedResults(int numResults) {
+        updateCurrentWeek();
+        final SQLiteDatabase database = getWritableDatabase();
+        final LongSparseArray<int[]> playCounts = getPlayCounts(database);
+        removeOutdatedEntries(database, playCounts);
+
+        final int maxResults = numResults <= 0 ? playCounts.size() : Math.min(numResults, playCounts.size());
+
+        // min-heap of the best results so far, the worst of them is at the root
+        final float[] heapScores = new float[maxResults];
+        final long[] heapIds = new long[maxResults];
+        int heapSize = 0;
+        for (int i = 0; i < playCounts.size() && maxResults > 0; i++) {
+            final float score = calculateScore(playCounts.valueAt(i));
+            if (score < .01f) {
+                continue;
+            }
+            if (heapSize < maxResults) {
+                heapScores[heapSize] = score;
+                heapIds[heapSize] = playCounts.keyAt(i);
+                siftUp(heapScores, heapIds, heapSize);
+                heapSize++;
+            } else if (score > heapScores[0]) {
+                heapScores[0] = score;
+                heapIds[0] = playCounts.keyAt(i);
+                siftDown(heapScores, heapIds, heapSize);
+            }
+        }
+
+        // repeatedly taking the worst result off the heap yields them from the back
+        final long[] topIds = new long[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            topIds[i] = heapIds[0];
+            heapScores[0] = heapScores[i];
+            heapIds[0] = heapIds[i];
+            siftDown(heapScores, heapIds, i);
+        }
 
-        final SQLiteDatabase database = getReadableDatabase();
-        return database.query(SongPlayCountColumns.NAME, new String[]{SongPlayCountColumns.ID},
-                null, null, null, null, SongPlayCountColumns.PLAY_COUNT_SCORE + " DESC",
-                (numResults <= 0 ? null : String.valueOf(numResults)));
+        final MatrixCursor cursor = new MatrixCursor(new String[]{SongPlayCountColumns.ID}, topIds.length);
+        for (long id : topIds) {
+            cursor.addRow(new Object[]{id});
+        }
+        return cursor;
     }
 
-    /**
-     * This updates all the results for the getTopPlayedResults so that we can get an
-     * accurate list of the top played results
-     */
-    private synchronized void updateResults() {
-        if (mDatabaseUpdated) {
-            return;
+    private static void siftUp(@NonNull final float[] scores, @NonNull final long[] ids, int index) {
+        while (index > 0) {
+            final int parent = (index - 1) / 2;
+            if (scores[parent] <= scores[index]) {
+                return;
+            }
+            swap(scores, ids, parent, index);
+            index = parent;
         }
+    }
 
-        final SQLiteDatabase database = getWritableDatabase();
+    private static void siftDown(@NonNull final float[] scores, @NonNull final long[] ids, final int size) {
+        int index = 0;
+        while (true) {
+            final int left = 2 * index + 1;
+            final int right = left + 1;
+            int smallest = index;
+            if (left < size && scores[left] < scores[smallest]) smallest = left;
+            if (right < size && scores[right] < scores[smallest]) smallest = right;
+            if (smallest == index) {
+                return;
+            }
+            swap(scores, ids, smallest, index);
+            index = smallest;
+        }
+    }
 
-        database.beginTransaction();
+    private static void swap(@NonNull final float[] scores, @NonNull final long[] ids, final int a, final int b) {
+        final float score = scores[a];
+        scores[a] = scores[b];
+        scores[b] = score;
+        final long id = ids[a];
+        ids[a] = ids[b];
+        ids[b] = id;
+    }
+
+    /**
+     * Removes the songs that have not been played in the past NUM_WEEKS, in memory and in the database.
+     */
+    private void removeOutdatedEntries(@NonNull final SQLiteDatabase database, @NonNull final LongSparseArray<int[]> playCounts) {
+        final int oldestWeekWeCareAbout = mNumberOfWeeksSinceEpoch - NUM_WEEKS + 1;
+
+        boolean foundOutdatedEntries = false;
+        for (int i = playCounts.size() - 1; i >= 0; i--) {
+            if (playCounts.valueAt(i)[LAST_UPDATED_WEEK_INDEX] < oldestWeekWeCareAbout) {
+                playCounts.removeAt(i);
+                foundOutdatedEntries = true;
+            }
+        }
 
-        int oldestWeekWeCareAbout = mNumberOfWeeksSinceEpoch - NUM_WEEKS + 1;
-        // delete rows we don't care about anymore
-        database.delete(SongPlayCountColumns.NAME, SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX
-                + " < " + oldestWeekWeCareAbout, null);
+        if (foundOutdatedEntries) {
+            database.delete(SongPlayCountColumns.NAME, SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX
+                    + " < " + oldestWeekWeCareAbout, null);
+        }
+    }
 
-        // get the remaining rows
-        Cursor cursor = database.query(SongPlayCountColumns.NAME,
-                new String[]{SongPlayCountColumns.ID},
-                null, null, null, null, null);
+    /**
+     * @param songId The song Id to remove.
+     */
+    public synchronized void removeItem(final long songId) {
+        final SQLiteDatabase database = getWritableDatabase();
+        database.delete(SongPlayCountColumns.NAME, WHERE_ID_EQUALS, new String[]{String.valueOf(songId)});
+        mDirtyEntries.remove(songId);
+        if (mPlayCounts != null) {
+            mPlayCounts.remove(songId);
+        }
+    }
 
-        if (cursor != null && cursor.moveToFirst()) {
-            // for each row, update it
-            do {
-                updateExistingRow(database, cursor.getLong(0), false);
-            } while (cursor.moveToNext());
+    /**
+     * Reads the whole table into memory the first time it is needed.
+     */
+    @NonNull
+    private LongSparseArray<int[]> getPlayCounts(@NonNull final SQLiteDatabase database) {
+        if (mPlayCounts != null) {
+            return mPlayCounts;
+        }
 
+        // sorted by id, so the sparse array only has to append
+        final Cursor cursor = database.query(SongPlayCountColumns.NAME, null, null, null, null, null, SongPlayCountColumns.ID);
+        final LongSparseArray<int[]> playCounts = new LongSparseArray<>(cursor != null ? cursor.getCount() : 0);
+        if (cursor != null) {
+            while (cursor.moveToNext()) {
+                playCounts.append(cursor.getLong(0), readEntry(cursor));
+            }
             cursor.close();
         }
+        // bumps that are not written yet are newer than the table
+        for (int i = 0; i < mDirtyEntries.size(); i++) {
+            playCounts.put(mDirtyEntries.keyAt(i), mDirtyEntries.valueAt(i));
+        }
+        mPlayCounts = playCounts;
+        return playCounts;
+    }
 
-        mDatabaseUpdated = true;
-        database.setTransactionSuccessful();
-        database.endTransaction();
+    @Nullable
+    private static int[] readEntry(@NonNull final SQLiteDatabase database, final long songId) {
+        final Cursor cursor = database.query(SongPlayCountColumns.NAME, null, WHERE_ID_EQUALS,
+                new String[]{String.valueOf(songId)}, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        final int[] entry = cursor.moveToFirst() ? readEntry(cursor) : null;
+        cursor.close();
+        return entry;
     }
 
     /**
-     * @param songId The song Id to remove.
+     * WARNING: This function assumes you have selected all columns for it to work
      */
-    public void removeItem(final long songId) {
-        final SQLiteDatabase database = getWritableDatabase();
-        deleteEntry(database, String.valueOf(songId));
+    @NonNull
+    private static int[] readEntry(@NonNull final Cursor cursor) {
+        final int[] entry = new int[LAST_UPDATED_WEEK_INDEX + 1];
+        for (int i = 0; i < NUM_WEEKS; i++) {
+            entry[i] = cursor.getInt(getColumnIndexForWeek(i));
+        }
+        entry[LAST_UPDATED_WEEK_INDEX] = cursor.getInt(cursor.getColumnIndex(SongPlayCountColumns.LAST_UPDATED_WEEK_INDEX));
+        return entry;
+    }
+
+    private void updateCurrentWeek() {
+        mNumberOfWeeksSinceEpoch = (int) (System.currentTimeMillis() / ONE_WEEK_IN_MS);
     }
 
     /**
-     * Deletes the entry
-     *
-     * @param database database to use
-     * @param stringId id to delete
+     * Moves the play counts of an entry so that they are relative to the current week.
      */
-    private void deleteEntry(@NonNull final SQLiteDatabase database, final String stringId) {
-        database.delete(SongPlayCountColumns.NAME, WHERE_ID_EQUALS, new String[]{stringId});
+    private void shiftToCurrentWeek(@NonNull final int[] entry) {
+        final int weekDiff = mNumberOfWeeksSinceEpoch - entry[LAST_UPDATED_WEEK_INDEX];
+        if (Math.abs(weekDiff) >= NUM_WEEKS) {
+            Arrays.fill(entry, 0, NUM_WEEKS, 0);
+        } else if (weekDiff > 0) {
+            // time is shifted forwards
+            System.arraycopy(entry, 0, entry, weekDiff, NUM_WEEKS - weekDiff);
+            Arrays.fill(entry, 0, weekDiff, 0);
+        } else if (weekDiff < 0) {
+            // time is shifted backwards (by user) - not typical behavior but we will still handle it
+            System.arraycopy(entry, -weekDiff, entry, 0, NUM_WEEKS + weekDiff);
+            Arrays.fill(entry, NUM_WEEKS + weekDiff, NUM_WEEKS, 0);
+        }
+        entry[LAST_UPDATED_WEEK_INDEX] = mNumberOfWeeksSinceEpoch;
     }
 
     /**
-     * Calculates the score of the song given the play counts
+     * Calculates the score of an entry as of the current week, without having to shift its play counts first.
      *
-     * @param playCounts an array of the # of times a song has been played for each week
-     *                   where playCounts[N] is the # of times it was played N weeks ago
+     * @param entry the play counts of the song, followed by the week they are relative to
      * @return the score
      */
-    private static float calculateScore(@Nullable final int[] playCounts) {
-        if (playCounts == null) {
-            return 0;
-        }
+    private float calculateScore(@NonNull final int[] entry) {
+        final int weekDiff = mNumberOfWeeksSinceEpoch - entry[LAST_UPDATED_WEEK_INDEX];
+        // count i of the entry is from week i + weekDiff as seen from the current week
+        final int start = Math.max(0, -weekDiff);
+        final int end = Math.min(NUM_WEEKS, NUM_WEEKS - weekDiff);
 
         float score = 0;
-        for (int i = 0; i < Math.min(playCounts.length, NUM_WEEKS); i++) {
-            score += playCounts[i] * getScoreMultiplierForWeek(i);
+        for (int i = start; i < end; i++) {
+            score += entry[i] * WEEK_SCORE_MULTIPLIERS[i + weekDiff];
         }
-
         return score;
     }
 
@@ -0,0 +1,58 @@
+package com.kabouzeid.gramophone.service;
+
+import android.content.Context;
+import android.media.MediaPlayer;
+import android.os.PowerManager;
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+
+/**
+ * Keeps a few idle {@link MediaPlayer} instances around, so changing the next or previous track does not allocate a new player every time.
+ */
+class MediaPlayerPool {
+    private static final int MAX_SIZE = 2;
+
+    private final Context context;
+    private final ArrayDeque<MediaPlayer> idlePlayers = new ArrayDeque<>(MAX_SIZE);
+
+    MediaPlayerPool(@NonNull Context context) {
+        this.context = context;
+    }
+
+    /**
+     * @return a player in the idle state.
+     */
+    @NonNull
+    synchronized MediaPlayer obtain() {
+        final MediaPlayer player = idlePlayers.poll();
+        if (player != null) {
+            return player;
+        }
+        final MediaPlayer newPlayer = new MediaPlayer();
+        newPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        return newPlayer;
+    }
+
+    synchronized void recycle(@Nullable MediaPlayer player) {
+        if (player == null) return;
+        if (idlePlayers.size() < MAX_SIZE) {
+            try {
+                player.reset();
+                idlePlayers.add(player);
+                return;
+            } catch (IllegalStateException ignored) {
+                // released or broken, don't keep it
+            }
+        }
+        player.release();
+    }
+
+    synchronized void clear() {
+        for (MediaPlayer player : idlePlayers) {
+            player.release();
+        }
+        idlePlayers.clear();
+    }
+}
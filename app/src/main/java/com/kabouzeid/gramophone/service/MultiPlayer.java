@@ -6,83 +6,173 @@ import android.media.AudioManager;
 import android.media.MediaPlayer;
 import android.media.audiofx.AudioEffect;
 import android.net.Uri;
-import android.os.PowerManager;
+import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import android.util.Log;
 import android.widget.Toast;
 
+import com.kabouzeid.gramophone.BuildConfig;
 import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.service.playback.Playback;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
+ * All players are prepared asynchronously, so opening a track never blocks the calling thread on the file system.
+ * <p>
+ * Starting and seeking while the current player is still preparing is remembered and applied once it is prepared,
+ * the next player is only handed to the current one once both are prepared.
+ * <p>
+ * The next and the previous track are kept prepared in players of their own, skipping to one of them just swaps the players.
+ * Players that are not needed anymore go back to a {@link MediaPlayerPool}.
+ * <p>
+ * Files are opened and players are reset without holding the lock of this class, so other threads never wait for the file system.
+ *
  * @author Andrew Neal, Karim Abou Zeid (kabouzeid)
  */
-public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener {
+public class MultiPlayer implements Playback {
     public static final String TAG = MultiPlayer.class.getSimpleName();
 
-    private MediaPlayer mCurrentMediaPlayer = new MediaPlayer();
-    private MediaPlayer mNextMediaPlayer;
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_PREPARING = 1;
+    private static final int STATE_PREPARED = 2;
+
+    private static final AtomicLong sSkipCount = new AtomicLong();
+    private static final AtomicLong sSkipLatencySum = new AtomicLong();
+    private static volatile long sLastSkipLatency = -1;
+
+    private final MediaPlayerPool mPool;
+
+    @NonNull
+    private volatile Track mCurrentTrack;
+    @Nullable
+    private Track mNextTrack;
+    @Nullable
+    private Track mPreviousTrack;
+    private boolean mNextMediaPlayerLinked = false;
+
+    // requested while the current player is still preparing
+    private volatile boolean mStartWhenPrepared = false;
+    private volatile int mSeekWhenPrepared = 0;
+
+    // when the current track was opened, until it is started or paused
+    private long mOpenTime = 0;
 
     private Context context;
     @Nullable
     private Playback.PlaybackCallbacks callbacks;
 
-    private boolean mIsInitialized = false;
+    private volatile boolean mIsInitialized = false;
 
     /**
      * Constructor of <code>MultiPlayer</code>
      */
     public MultiPlayer(final Context context) {
         this.context = context;
-        mCurrentMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        mPool = new MediaPlayerPool(context);
+        mCurrentTrack = new Track(mPool.obtain(), null, STATE_IDLE);
+    }
+
+    /**
+     * @return the time in milliseconds from opening the last track that was started right away until it was playing, or -1 if there was none yet.
+     */
+    public static long getLastSkipLatency() {
+        return sLastSkipLatency;
+    }
+
+    /**
+     * @return the average of {@link #getLastSkipLatency()} since the app started, or -1 if there was none yet.
+     */
+    public static long getAverageSkipLatency() {
+        final long count = sSkipCount.get();
+        return count == 0 ? -1 : sSkipLatencySum.get() / count;
     }
 
     /**
      * @param path The path of the file, or the http/rtsp URL of the stream
      *             you want to play
-     * @return True if the <code>player</code> has been prepared and is
-     * ready to play, false otherwise
+     * @return True if the <code>player</code> is preparing the file and
+     * can be started, false otherwise
      */
     @Override
     public boolean setDataSource(@NonNull final String path) {
-        mIsInitialized = false;
-        mIsInitialized = setDataSourceImpl(mCurrentMediaPlayer, path);
-        if (mIsInitialized) {
-            setNextDataSource(null);
+        final List<MediaPlayer> unusedPlayers = new ArrayList<>(2);
+        final Track track;
+        synchronized (this) {
+            mStartWhenPrepared = false;
+            mSeekWhenPrepared = 0;
+            mOpenTime = SystemClock.elapsedRealtime();
+            // still linked to the next player, it must not be kept as the previous one
+            final boolean keepCurrentTrack = unlinkNextMediaPlayer();
+
+            final int audioSessionId = getAudioSessionId();
+            final Track standbyTrack = takeStandbyTrack(path);
+            // when skipping forward the track that was playing is the previous one now
+            keepCurrentAsPreviousTrack(keepCurrentTrack, unusedPlayers);
+
+            if (standbyTrack != null) {
+                mCurrentTrack = standbyTrack;
+                mIsInitialized = true;
+                linkNextMediaPlayer();
+                track = null;
+            } else {
+                // counts as preparing while the file is opened, starting and seeking are applied once it is prepared
+                track = new Track(obtainMediaPlayer(audioSessionId), path, STATE_PREPARING);
+                mCurrentTrack = track;
+                mIsInitialized = true;
+            }
         }
-        return mIsInitialized;
+        recycle(unusedPlayers);
+        if (track == null) {
+            return true;
+        }
+
+        final boolean opened = open(track);
+        if (!opened) {
+            synchronized (this) {
+                if (mCurrentTrack == track) {
+                    track.state = STATE_IDLE;
+                    mIsInitialized = false;
+                    mStartWhenPrepared = false;
+                    mOpenTime = 0;
+                }
+            }
+        }
+        return opened;
     }
 
     /**
-     * @param player The {@link MediaPlayer} to use
-     * @param path   The path of the file, or the http/rtsp URL of the stream
-     *               you want to play
-     * @return True if the <code>player</code> has been prepared and is
-     * ready to play, false otherwise
+     * Opens the file of the track and starts preparing it, must be called without holding the lock.
+     *
+     * @return True if the <code>player</code> is preparing the file, false otherwise
      */
-    private boolean setDataSourceImpl(@NonNull final MediaPlayer player, @NonNull final String path) {
+    private boolean open(@NonNull final Track track) {
         if (context == null) {
             return false;
         }
+        final MediaPlayer player = track.mediaPlayer;
         try {
             player.reset();
-            player.setOnPreparedListener(null);
-            if (path.startsWith("content://")) {
-                player.setDataSource(context, Uri.parse(path));
+            player.setOnPreparedListener(track);
+            player.setOnCompletionListener(track);
+            player.setOnErrorListener(track);
+            if (track.path.startsWith("content://")) {
+                player.setDataSource(context, Uri.parse(track.path));
             } else {
-                player.setDataSource(path);
+                player.setDataSource(track.path);
             }
             player.setAudioStreamType(AudioManager.STREAM_MUSIC);
-            player.prepare();
+            track.prepareStartTime = SystemClock.elapsedRealtime();
+            player.prepareAsync();
         } catch (Exception e) {
             return false;
         }
-        player.setOnCompletionListener(this);
-        player.setOnErrorListener(this);
         final Intent intent = new Intent(AudioEffect.ACTION_OPEN_AUDIO_EFFECT_CONTROL_SESSION);
-        intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, getAudioSessionId());
+        intent.putExtra(AudioEffect.EXTRA_AUDIO_SESSION, player.getAudioSessionId());
         intent.putExtra(AudioEffect.EXTRA_PACKAGE_NAME, context.getPackageName());
         intent.putExtra(AudioEffect.EXTRA_CONTENT_TYPE, AudioEffect.CONTENT_TYPE_MUSIC);
         context.sendBroadcast(intent);
@@ -91,6 +181,8 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
 
     /**
      * Set the MediaPlayer to start when this MediaPlayer finishes playback.
+     * <p>
+     * The track is prepared in any case so skipping to it is instant, it is only played gapless if that is enabled.
      *
      * @param path The path of the file, or the http/rtsp URL of the stream
      *             you want to play
@@ -100,42 +192,183 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
         if (context == null) {
             return;
         }
-        try {
-            mCurrentMediaPlayer.setNextMediaPlayer(null);
-        } catch (IllegalArgumentException e) {
-            Log.i(TAG, "Next media player is current one, continuing");
-        } catch (IllegalStateException e) {
-            Log.e(TAG, "Media player not initialized!");
+        final List<MediaPlayer> unusedPlayers = new ArrayList<>(2);
+        final Track track;
+        synchronized (this) {
+            if (path != null && mNextTrack != null && mNextTrack.path.equals(path)) {
+                // already prepared, only gapless playback might have been switched
+                if (!PreferenceUtil.getInstance(context).gaplessPlayback()) {
+                    unlinkNextMediaPlayer();
+                }
+                linkNextMediaPlayer();
+                return;
+            }
+            unlinkNextMediaPlayer();
+            if (path != null && mPreviousTrack != null && mPreviousTrack.path.equals(path)) {
+                // after skipping back the track that was playing is the next one
+                if (mNextTrack != null) {
+                    unusedPlayers.add(mNextTrack.mediaPlayer);
+                }
+                mNextTrack = mPreviousTrack;
+                mPreviousTrack = null;
+                track = null;
+            } else {
+                track = replaceStandbyTrack(mNextTrack, path, unusedPlayers);
+                mNextTrack = track;
+            }
+            linkNextMediaPlayer();
+        }
+        recycle(unusedPlayers);
+        openStandbyTrack(track);
+    }
+
+    /**
+     * Prepares the track that skipping back goes to, so it can start right away.
+     *
+     * @param path The path of the file, or the http/rtsp URL of the stream
+     *             you want to play
+     */
+    @Override
+    public void setPreviousDataSource(@Nullable final String path) {
+        if (context == null) {
             return;
         }
-        if (mNextMediaPlayer != null) {
-            mNextMediaPlayer.release();
-            mNextMediaPlayer = null;
+        final List<MediaPlayer> unusedPlayers = new ArrayList<>(1);
+        final Track track;
+        synchronized (this) {
+            if (path != null && mPreviousTrack != null && mPreviousTrack.path.equals(path)) {
+                return;
+            }
+            track = replaceStandbyTrack(mPreviousTrack, path, unusedPlayers);
+            mPreviousTrack = track;
+        }
+        recycle(unusedPlayers);
+        openStandbyTrack(track);
+    }
+
+    /**
+     * @return a new track for the path that still has to be opened, or null if there is none.
+     */
+    @Nullable
+    private Track replaceStandbyTrack(@Nullable final Track standbyTrack, @Nullable final String path, @NonNull final List<MediaPlayer> unusedPlayers) {
+        if (standbyTrack != null) {
+            unusedPlayers.add(standbyTrack.mediaPlayer);
         }
-        if (path == null) {
+        if (path == null || !mIsInitialized) {
+            return null;
+        }
+        return new Track(obtainMediaPlayer(getAudioSessionId()), path, STATE_PREPARING);
+    }
+
+    private void openStandbyTrack(@Nullable final Track track) {
+        if (track == null || open(track)) {
             return;
         }
-        if (PreferenceUtil.getInstance(context).gaplessPlayback()) {
-            mNextMediaPlayer = new MediaPlayer();
-            mNextMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
-            mNextMediaPlayer.setAudioSessionId(getAudioSessionId());
-            if (setDataSourceImpl(mNextMediaPlayer, path)) {
-                try {
-                    mCurrentMediaPlayer.setNextMediaPlayer(mNextMediaPlayer);
-                } catch (@NonNull IllegalArgumentException | IllegalStateException e) {
-                    Log.e(TAG, "setNextDataSource: setNextMediaPlayer()", e);
-                    if (mNextMediaPlayer != null) {
-                        mNextMediaPlayer.release();
-                        mNextMediaPlayer = null;
-                    }
-                }
+        synchronized (this) {
+            if (mNextTrack == track) {
+                mNextTrack = null;
+            } else if (mPreviousTrack == track) {
+                mPreviousTrack = null;
             } else {
-                if (mNextMediaPlayer != null) {
-                    mNextMediaPlayer.release();
-                    mNextMediaPlayer = null;
+                // already replaced, its player was recycled with it
+                return;
+            }
+        }
+        mPool.recycle(track.mediaPlayer);
+    }
+
+    /**
+     * @return an idle player that plays in the given audio session, so audio effects keep working across tracks.
+     */
+    @NonNull
+    private MediaPlayer obtainMediaPlayer(final int audioSessionId) {
+        final MediaPlayer mediaPlayer = mPool.obtain();
+        try {
+            mediaPlayer.setAudioSessionId(audioSessionId);
+        } catch (@NonNull IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "obtainMediaPlayer: setAudioSessionId()", e);
+        }
+        return mediaPlayer;
+    }
+
+    @Nullable
+    private Track takeStandbyTrack(@NonNull final String path) {
+        Track standbyTrack = null;
+        if (mNextTrack != null && mNextTrack.path.equals(path)) {
+            standbyTrack = mNextTrack;
+            mNextTrack = null;
+        } else if (mPreviousTrack != null && mPreviousTrack.path.equals(path)) {
+            standbyTrack = mPreviousTrack;
+            mPreviousTrack = null;
+        }
+        return standbyTrack;
+    }
+
+    /**
+     * Keeps the current track rewound as the previous track if it is prepared, otherwise its player goes back to the pool.
+     */
+    private void keepCurrentAsPreviousTrack(final boolean keep, @NonNull final List<MediaPlayer> unusedPlayers) {
+        final Track track = mCurrentTrack;
+        if (keep && track.state == STATE_PREPARED && track.path != null) {
+            try {
+                if (track.mediaPlayer.isPlaying()) {
+                    track.mediaPlayer.pause();
+                }
+                track.mediaPlayer.seekTo(0);
+                if (mPreviousTrack != null) {
+                    unusedPlayers.add(mPreviousTrack.mediaPlayer);
                 }
+                mPreviousTrack = track;
+                return;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "keepCurrentAsPreviousTrack()", e);
             }
         }
+        unusedPlayers.add(track.mediaPlayer);
+    }
+
+    /**
+     * Resets the players and puts them back into the pool, must be called without holding the lock.
+     */
+    private void recycle(@NonNull final List<MediaPlayer> unusedPlayers) {
+        for (MediaPlayer mediaPlayer : unusedPlayers) {
+            mPool.recycle(mediaPlayer);
+        }
+    }
+
+    /**
+     * Hands the next player to the current one, as soon as both are prepared.
+     */
+    private void linkNextMediaPlayer() {
+        if (mCurrentTrack.state != STATE_PREPARED || mNextTrack == null || mNextTrack.state != STATE_PREPARED || mNextMediaPlayerLinked
+                || !PreferenceUtil.getInstance(context).gaplessPlayback()) {
+            return;
+        }
+        try {
+            mCurrentTrack.mediaPlayer.setNextMediaPlayer(mNextTrack.mediaPlayer);
+            mNextMediaPlayerLinked = true;
+        } catch (@NonNull IllegalArgumentException | IllegalStateException e) {
+            Log.e(TAG, "linkNextMediaPlayer: setNextMediaPlayer()", e);
+        }
+    }
+
+    /**
+     * @return false if the current player could not be unlinked from the next one.
+     */
+    private boolean unlinkNextMediaPlayer() {
+        if (!mNextMediaPlayerLinked) {
+            return true;
+        }
+        mNextMediaPlayerLinked = false;
+        try {
+            mCurrentTrack.mediaPlayer.setNextMediaPlayer(null);
+        } catch (IllegalArgumentException e) {
+            Log.i(TAG, "Next media player is current one, continuing");
+        } catch (IllegalStateException e) {
+            Log.e(TAG, "Media player not initialized!");
+            return false;
+        }
+        return true;
     }
 
     /**
@@ -160,43 +393,78 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
      * Starts or resumes playback.
      */
     @Override
-    public boolean start() {
+    public synchronized boolean start() {
+        if (mCurrentTrack.state == STATE_PREPARING) {
+            mStartWhenPrepared = true;
+            return true;
+        }
         try {
-            mCurrentMediaPlayer.start();
+            mCurrentTrack.mediaPlayer.start();
+            onStarted();
             return true;
         } catch (IllegalStateException e) {
             return false;
         }
     }
 
+    /**
+     * Records how long it took from opening the track until it was playing.
+     */
+    private void onStarted() {
+        if (mOpenTime == 0) {
+            return;
+        }
+        final long latency = SystemClock.elapsedRealtime() - mOpenTime;
+        mOpenTime = 0;
+        sLastSkipLatency = latency;
+        sSkipLatencySum.addAndGet(latency);
+        sSkipCount.incrementAndGet();
+        if (BuildConfig.DEBUG) Log.d(TAG, "Track was playing " + latency + "ms after it was opened");
+    }
+
     /**
      * Resets the MediaPlayer to its uninitialized state.
      */
     @Override
-    public void stop() {
-        mCurrentMediaPlayer.reset();
+    public synchronized void stop() {
+        mCurrentTrack.mediaPlayer.reset();
+        mCurrentTrack.state = STATE_IDLE;
         mIsInitialized = false;
+        mStartWhenPrepared = false;
+        mNextMediaPlayerLinked = false;
+        mOpenTime = 0;
     }
 
     /**
      * Releases resources associated with this MediaPlayer object.
      */
     @Override
-    public void release() {
+    public synchronized void release() {
         stop();
-        mCurrentMediaPlayer.release();
-        if (mNextMediaPlayer != null) {
-            mNextMediaPlayer.release();
+        mCurrentTrack.mediaPlayer.release();
+        if (mNextTrack != null) {
+            mNextTrack.mediaPlayer.release();
+            mNextTrack = null;
         }
+        if (mPreviousTrack != null) {
+            mPreviousTrack.mediaPlayer.release();
+            mPreviousTrack = null;
+        }
+        mPool.clear();
     }
 
     /**
      * Pauses playback. Call start() to resume.
      */
     @Override
-    public boolean pause() {
+    public synchronized boolean pause() {
+        mOpenTime = 0;
+        if (mCurrentTrack.state == STATE_PREPARING) {
+            mStartWhenPrepared = false;
+            return true;
+        }
         try {
-            mCurrentMediaPlayer.pause();
+            mCurrentTrack.mediaPlayer.pause();
             return true;
         } catch (IllegalStateException e) {
             return false;
@@ -208,7 +476,12 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
      */
     @Override
     public boolean isPlaying() {
-        return mIsInitialized && mCurrentMediaPlayer.isPlaying();
+        final Track track = mCurrentTrack;
+        if (track.state == STATE_PREPARING) {
+            // it starts as soon as it is prepared
+            return mStartWhenPrepared;
+        }
+        return mIsInitialized && track.mediaPlayer.isPlaying();
     }
 
     /**
@@ -218,11 +491,12 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
      */
     @Override
     public int duration() {
-        if (!mIsInitialized) {
+        final Track track = mCurrentTrack;
+        if (!mIsInitialized || track.state == STATE_PREPARING) {
             return -1;
         }
         try {
-            return mCurrentMediaPlayer.getDuration();
+            return track.mediaPlayer.getDuration();
         } catch (IllegalStateException e) {
             return -1;
         }
@@ -238,8 +512,12 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
         if (!mIsInitialized) {
             return -1;
         }
+        final Track track = mCurrentTrack;
+        if (track.state == STATE_PREPARING) {
+            return mSeekWhenPrepared;
+        }
         try {
-            return mCurrentMediaPlayer.getCurrentPosition();
+            return track.mediaPlayer.getCurrentPosition();
         } catch (IllegalStateException e) {
             return -1;
         }
@@ -252,9 +530,13 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
      * @return The offset in milliseconds from the start to seek to
      */
     @Override
-    public int seek(final int whereto) {
+    public synchronized int seek(final int whereto) {
+        if (mCurrentTrack.state == STATE_PREPARING) {
+            mSeekWhenPrepared = whereto;
+            return whereto;
+        }
         try {
-            mCurrentMediaPlayer.seekTo(whereto);
+            mCurrentTrack.mediaPlayer.seekTo(whereto);
             return whereto;
         } catch (IllegalStateException e) {
             return -1;
@@ -264,7 +546,7 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
     @Override
     public boolean setVolume(final float vol) {
         try {
-            mCurrentMediaPlayer.setVolume(vol, vol);
+            mCurrentTrack.mediaPlayer.setVolume(vol, vol);
             return true;
         } catch (IllegalStateException e) {
             return false;
@@ -279,7 +561,7 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
     @Override
     public boolean setAudioSessionId(final int sessionId) {
         try {
-            mCurrentMediaPlayer.setAudioSessionId(sessionId);
+            mCurrentTrack.mediaPlayer.setAudioSessionId(sessionId);
             return true;
         } catch (@NonNull IllegalArgumentException | IllegalStateException e) {
             return false;
@@ -293,40 +575,138 @@ public class MultiPlayer implements Playback, MediaPlayer.OnErrorListener, Media
      */
     @Override
     public int getAudioSessionId() {
-        return mCurrentMediaPlayer.getAudioSessionId();
+        return mCurrentTrack.mediaPlayer.getAudioSessionId();
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public boolean onError(final MediaPlayer mp, final int what, final int extra) {
+    private synchronized void onPrepared(@NonNull final Track track) {
+        if (track.state != STATE_PREPARING) {
+            return;
+        }
+        if (track == mCurrentTrack) {
+            track.state = STATE_PREPARED;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Prepared track in " + (SystemClock.elapsedRealtime() - track.prepareStartTime) + "ms");
+            try {
+                if (mSeekWhenPrepared > 0) {
+                    track.mediaPlayer.seekTo(mSeekWhenPrepared);
+                }
+                if (mStartWhenPrepared) {
+                    track.mediaPlayer.start();
+                    onStarted();
+                }
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "onPrepared: start()", e);
+            }
+            // opened without playing, starting it later is not a skip
+            mOpenTime = 0;
+            mSeekWhenPrepared = 0;
+            mStartWhenPrepared = false;
+            linkNextMediaPlayer();
+            if (callbacks != null) {
+                callbacks.onTrackPrepared();
+            }
+        } else if (track == mNextTrack) {
+            track.state = STATE_PREPARED;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Prepared next track in " + (SystemClock.elapsedRealtime() - track.prepareStartTime) + "ms");
+            linkNextMediaPlayer();
+        } else if (track == mPreviousTrack) {
+            track.state = STATE_PREPARED;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Prepared previous track in " + (SystemClock.elapsedRealtime() - track.prepareStartTime) + "ms");
+        }
+        // otherwise the track was dropped while it was preparing, its player might be preparing another track by now
+    }
+
+    private synchronized boolean onError(@NonNull final Track track) {
+        if (track == mNextTrack) {
+            // the next track is opened again once it is played
+            unlinkNextMediaPlayer();
+            mNextTrack = null;
+            track.mediaPlayer.release();
+            return true;
+        }
+        if (track == mPreviousTrack) {
+            mPreviousTrack = null;
+            track.mediaPlayer.release();
+            return true;
+        }
+        if (track != mCurrentTrack) {
+            // dropped in the meantime
+            return true;
+        }
+        final int audioSessionId = getAudioSessionId();
         mIsInitialized = false;
-        mCurrentMediaPlayer.release();
-        mCurrentMediaPlayer = new MediaPlayer();
-        mCurrentMediaPlayer.setWakeMode(context, PowerManager.PARTIAL_WAKE_LOCK);
+        mStartWhenPrepared = false;
+        mNextMediaPlayerLinked = false;
+        mOpenTime = 0;
+        track.state = STATE_IDLE;
+        track.mediaPlayer.release();
+        mCurrentTrack = new Track(obtainMediaPlayer(audioSessionId), null, STATE_IDLE);
         if (context != null) {
             Toast.makeText(context, context.getResources().getString(R.string.unplayable_file), Toast.LENGTH_SHORT).show();
         }
+        if (callbacks != null) {
+            callbacks.onTrackFailed();
+        }
         return false;
     }
 
-    /**
-     * {@inheritDoc}
-     */
-    @Override
-    public void onCompletion(final MediaPlayer mp) {
-        if (mp == mCurrentMediaPlayer && mNextMediaPlayer != null) {
-            mIsInitialized = false;
-            mCurrentMediaPlayer.release();
-            mCurrentMediaPlayer = mNextMediaPlayer;
-            mIsInitialized = true;
-            mNextMediaPlayer = null;
-            if (callbacks != null)
+    private void onCompletion(@NonNull final Track track) {
+        final List<MediaPlayer> unusedPlayers = new ArrayList<>(1);
+        final boolean wentToNext;
+        synchronized (this) {
+            if (track != mCurrentTrack) {
+                // dropped in the meantime
+                return;
+            }
+            wentToNext = mNextTrack != null && mNextMediaPlayerLinked;
+            if (wentToNext) {
+                keepCurrentAsPreviousTrack(unlinkNextMediaPlayer(), unusedPlayers);
+                mCurrentTrack = mNextTrack;
+                mNextTrack = null;
+            }
+        }
+        recycle(unusedPlayers);
+        if (callbacks != null) {
+            if (wentToNext) {
                 callbacks.onTrackWentToNext();
-        } else {
-            if (callbacks != null)
+            } else {
                 callbacks.onTrackEnded();
+            }
+        }
+    }
+
+    /**
+     * A track and the player it is opened in. It receives the callbacks of its player,
+     * so callbacks that were meant for a track that is gone by now are told apart from the ones of a track that reuses the player.
+     */
+    private final class Track implements MediaPlayer.OnPreparedListener, MediaPlayer.OnErrorListener, MediaPlayer.OnCompletionListener {
+        @NonNull
+        final MediaPlayer mediaPlayer;
+        // null if nothing was opened in the player
+        @Nullable
+        final String path;
+        volatile int state;
+        long prepareStartTime;
+
+        Track(@NonNull MediaPlayer mediaPlayer, @Nullable String path, int state) {
+            this.mediaPlayer = mediaPlayer;
+            this.path = path;
+            this.state = state;
+            this.prepareStartTime = SystemClock.elapsedRealtime();
+        }
+
+        @Override
+        public void onPrepared(final MediaPlayer mp) {
+            MultiPlayer.this.onPrepared(this);
+        }
+
+        @Override
+        public boolean onError(final MediaPlayer mp, final int what, final int extra) {
+            return MultiPlayer.this.onError(this);
+        }
+
+        @Override
+        public void onCompletion(final MediaPlayer mp) {
+            MultiPlayer.this.onCompletion(this);
         }
     }
 }
@@ -25,11 +25,13 @@ import android.os.Looper;
 import android.os.Message;
 import android.os.PowerManager;
 import android.os.Process;
-import android.preference.PreferenceManager;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.support.v4.media.MediaMetadataCompat;
 import android.support.v4.media.session.MediaSessionCompat;
 import android.support.v4.media.session.PlaybackStateCompat;
+import android.util.Log;
+import android.util.LongSparseArray;
 import android.widget.Toast;
 
 import androidx.annotation.NonNull;
@@ -37,8 +39,10 @@ import androidx.annotation.Nullable;
 
 import com.bumptech.glide.BitmapRequestBuilder;
 import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.bumptech.glide.request.animation.GlideAnimation;
 import com.bumptech.glide.request.target.SimpleTarget;
+import com.kabouzeid.gramophone.BuildConfig;
 import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.appwidgets.AppWidgetBig;
 import com.kabouzeid.gramophone.appwidgets.AppWidgetCard;
@@ -49,11 +53,13 @@ import com.kabouzeid.gramophone.glide.SongGlideRequest;
 import com.kabouzeid.gramophone.helper.ShuffleHelper;
 import com.kabouzeid.gramophone.helper.StopWatch;
 import com.kabouzeid.gramophone.loader.PlaylistSongLoader;
+import com.kabouzeid.gramophone.loader.SongLoader;
 import com.kabouzeid.gramophone.model.AbsCustomPlaylist;
 import com.kabouzeid.gramophone.model.Playlist;
 import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.provider.HistoryStore;
 import com.kabouzeid.gramophone.provider.MusicPlaybackQueueStore;
+import com.kabouzeid.gramophone.provider.PlaybackStateStore;
 import com.kabouzeid.gramophone.provider.SongPlayCountStore;
 import com.kabouzeid.gramophone.service.notification.PlayingNotification;
 import com.kabouzeid.gramophone.service.notification.PlayingNotificationImpl;
@@ -67,11 +73,13 @@ import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * @author Karim Abou Zeid (kabouzeid), Andrew Neal
  */
 public class MusicService extends Service implements SharedPreferences.OnSharedPreferenceChangeListener, Playback.PlaybackCallbacks {
+    public static final String TAG = MusicService.class.getSimpleName();
 
     public static final String PHONOGRAPH_PACKAGE_NAME = "com.kabouzeid.gramophone";
     public static final String MUSIC_PACKAGE_NAME = "com.android.music";
@@ -100,6 +108,7 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     public static final String SHUFFLE_MODE_CHANGED = PHONOGRAPH_PACKAGE_NAME + ".shufflemodechanged";
     public static final String MEDIA_STORE_CHANGED = PHONOGRAPH_PACKAGE_NAME + ".mediastorechanged";
 
+    // only used to take over the state saved by older versions, see PlaybackStateStore
     public static final String SAVED_POSITION = "POSITION";
     public static final String SAVED_POSITION_IN_TRACK = "POSITION_IN_TRACK";
     public static final String SAVED_SHUFFLE_MODE = "SHUFFLE_MODE";
@@ -124,6 +133,15 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     public static final int REPEAT_MODE_THIS = 2;
 
     public static final int SAVE_QUEUES = 0;
+    public static final int SAVE_STATE = 1;
+    public static final int ADD_TO_HISTORY = 2;
+    public static final int BUMP_PLAY_COUNT = 3;
+
+    // milliseconds to wait before writing the playback state to aggregate changes
+    private static final long SAVE_STATE_DELAY = 1000;
+
+    // number of upcoming songs whose covers are loaded ahead of time
+    private static final int PREFETCH_ALBUM_ART_COUNT = 2;
 
     private final IBinder musicBind = new MusicBinder();
 
@@ -135,10 +153,25 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     private AppWidgetCard appWidgetCard = AppWidgetCard.getInstance();
 
     private Playback playback;
-    private List<Song> playingQueue = new ArrayList<>();
-    private List<Song> originalPlayingQueue = new ArrayList<>();
+    private PlayingQueue playingQueue = new PlayingQueue();
+    private PlayingQueue originalPlayingQueue = new PlayingQueue();
     private int position = -1;
     private int nextPosition = -1;
+
+    // the tracks prepareNextImpl() last handed to the player, the uris are derived from the song ids
+    @Nullable
+    private volatile String preparedNextUri;
+    @Nullable
+    private volatile String preparedPreviousUri;
+    private int skippedPrepareNextCount = 0;
+
+    // read by the ui without taking a lock, see publishPlaybackSnapshot()
+    @NonNull
+    private volatile PlaybackSnapshot playbackSnapshot = PlaybackSnapshot.EMPTY;
+    // only guards publishing, the lock of the service is not taken because the player publishes from its own callbacks
+    private final Object playbackSnapshotLock = new Object();
+    private final AtomicInteger queueVersion = new AtomicInteger();
+
     private int shuffleMode;
     private int repeatMode;
     private boolean queuesRestored;
@@ -399,20 +432,46 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
                 case SAVE_QUEUES:
                     service.saveQueuesImpl();
                     break;
+                case SAVE_STATE:
+                    PlaybackStateStore.getInstance(service).flush();
+                    SongPlayCountStore.getInstance(service).flush();
+                    break;
+                case ADD_TO_HISTORY:
+                    HistoryStore.getInstance(service).addSongId((Long) msg.obj);
+                    break;
+                case BUMP_PLAY_COUNT:
+                    // written together with the playback state
+                    SongPlayCountStore.getInstance(service).bumpPlayCount((Long) msg.obj);
+                    break;
             }
         }
     }
 
     private void saveQueuesImpl() {
-        MusicPlaybackQueueStore.getInstance(this).saveQueues(playingQueue, originalPlayingQueue);
+        // the queues might be edited while they are written, save one version of each
+        MusicPlaybackQueueStore.getInstance(this).saveQueues(new PlayingQueue(playingQueue), new PlayingQueue(originalPlayingQueue));
     }
 
     private void savePosition() {
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putInt(SAVED_POSITION, getPosition()).apply();
+        PlaybackStateStore.getInstance(this).setPosition(getPosition());
+        scheduleSavePlaybackState();
     }
 
     private void savePositionInTrack() {
-        PreferenceManager.getDefaultSharedPreferences(this).edit().putInt(SAVED_POSITION_IN_TRACK, getSongProgressMillis()).apply();
+        PlaybackStateStore.getInstance(this).setPositionInTrack(getSongProgressMillis());
+        scheduleSavePlaybackState();
+    }
+
+    private void scheduleSavePlaybackState() {
+        // don't postpone an already scheduled save, otherwise constant changes would never be written
+        if (!queueSaveHandler.hasMessages(SAVE_STATE)) {
+            queueSaveHandler.sendEmptyMessageDelayed(SAVE_STATE, SAVE_STATE_DELAY);
+        }
+    }
+
+    private void flushPlaybackState() {
+        queueSaveHandler.removeMessages(SAVE_STATE);
+        queueSaveHandler.sendEmptyMessage(SAVE_STATE);
     }
 
     public void saveState() {
@@ -427,8 +486,8 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     }
 
     private void restoreState() {
-        shuffleMode = PreferenceManager.getDefaultSharedPreferences(this).getInt(SAVED_SHUFFLE_MODE, 0);
-        repeatMode = PreferenceManager.getDefaultSharedPreferences(this).getInt(SAVED_REPEAT_MODE, 0);
+        shuffleMode = PlaybackStateStore.getInstance(this).getShuffleMode();
+        repeatMode = PlaybackStateStore.getInstance(this).getRepeatMode();
         handleAndSendChangeInternal(SHUFFLE_MODE_CHANGED);
         handleAndSendChangeInternal(REPEAT_MODE_CHANGED);
 
@@ -436,29 +495,97 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         playerHandler.sendEmptyMessage(RESTORE_QUEUES);
     }
 
-    private synchronized void restoreQueuesAndPositionIfNecessary() {
-        if (!queuesRestored && playingQueue.isEmpty()) {
-            List<Song> restoredQueue = MusicPlaybackQueueStore.getInstance(this).getSavedPlayingQueue();
-            List<Song> restoredOriginalQueue = MusicPlaybackQueueStore.getInstance(this).getSavedOriginalPlayingQueue();
-            int restoredPosition = PreferenceManager.getDefaultSharedPreferences(this).getInt(SAVED_POSITION, -1);
-            int restoredPositionInTrack = PreferenceManager.getDefaultSharedPreferences(this).getInt(SAVED_POSITION_IN_TRACK, -1);
+    private void restoreQueuesAndPositionIfNecessary() {
+        synchronized (this) {
+            if (queuesRestored || !playingQueue.isEmpty()) {
+                queuesRestored = true;
+                return;
+            }
+        }
 
-            if (restoredQueue.size() > 0 && restoredQueue.size() == restoredOriginalQueue.size() && restoredPosition != -1) {
-                this.originalPlayingQueue = restoredOriginalQueue;
-                this.playingQueue = restoredQueue;
+        // load the queues without holding the lock, so the playback and ui threads don't have to wait for it
+        final long start = SystemClock.elapsedRealtime();
+        final long[] savedQueueIds = MusicPlaybackQueueStore.getInstance(this).getSavedPlayingQueueIds();
+        final long[] savedOriginalQueueIds = MusicPlaybackQueueStore.getInstance(this).getSavedOriginalPlayingQueueIds();
+        List<Song> restoredQueue = SongLoader.getSongs(this, savedQueueIds);
+        // the original queue holds the same songs in a different order, they don't have to be queried again
+        List<Song> restoredOriginalQueue = getSongs(restoredQueue, savedOriginalQueueIds);
+        Log.d(TAG, "Loaded " + restoredQueue.size() + " queued songs in " + (SystemClock.elapsedRealtime() - start) + "ms");
+
+        boolean restored = false;
+        int restoredPositionInTrack = PlaybackStateStore.getInstance(this).getPositionInTrack();
+        synchronized (this) {
+            if (!queuesRestored && playingQueue.isEmpty()) {
+                final int savedPosition = PlaybackStateStore.getInstance(this).getPosition();
+                int restoredPosition = -1;
+
+                // songs that were deleted in the meantime are not restored, so the position is moved over them
+                if (savedPosition >= 0 && savedPosition < savedQueueIds.length) {
+                    restoredPosition = getRestoredPosition(savedQueueIds, restoredQueue, savedPosition);
+                    if (restoredPosition == restoredQueue.size() || restoredQueue.get(restoredPosition).id != savedQueueIds[savedPosition]) {
+                        // the current song is gone, continue with the start of the next one
+                        restoredPosition = restoredPosition == restoredQueue.size() ? 0 : restoredPosition;
+                        restoredPositionInTrack = -1;
+                    }
+                }
 
-                position = restoredPosition;
-                openCurrent();
-                prepareNext();
+                if (restoredQueue.size() > 0 && restoredQueue.size() == restoredOriginalQueue.size() && restoredPosition != -1) {
+                    this.originalPlayingQueue = new PlayingQueue(restoredOriginalQueue);
+                    this.playingQueue = new PlayingQueue(restoredQueue);
 
-                if (restoredPositionInTrack > 0) seek(restoredPositionInTrack);
+                    position = restoredPosition;
+                    restored = true;
+                }
+            }
+            queuesRestored = true;
+        }
+
+        if (restored) {
+            openCurrent();
+            prepareNext();
 
-                notHandledMetaChangedForCurrentTrack = true;
-                sendChangeInternal(META_CHANGED);
-                sendChangeInternal(QUEUE_CHANGED);
+            if (restoredPositionInTrack > 0) seek(restoredPositionInTrack);
+
+            notHandledMetaChangedForCurrentTrack = true;
+            queueVersion.incrementAndGet();
+            publishPlaybackSnapshot();
+            sendChangeInternal(META_CHANGED);
+            sendChangeInternal(QUEUE_CHANGED);
+            Log.d(TAG, "Restored the queues in " + (SystemClock.elapsedRealtime() - start) + "ms");
+        }
+    }
+
+    /**
+     * @return the songs with the given ids in that order, ids of songs that are not in the given list are skipped.
+     */
+    @NonNull
+    private static List<Song> getSongs(@NonNull List<Song> songs, @NonNull long[] ids) {
+        final LongSparseArray<Song> songsById = new LongSparseArray<>(songs.size());
+        for (Song song : songs) {
+            songsById.put(song.id, song);
+        }
+        final List<Song> orderedSongs = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            final Song song = songsById.get(id);
+            if (song != null) {
+                orderedSongs.add(song);
             }
         }
-        queuesRestored = true;
+        return orderedSongs;
+    }
+
+    /**
+     * @return the number of songs before the saved position that are still in the restored queue.
+     */
+    private static int getRestoredPosition(@NonNull long[] savedQueueIds, @NonNull List<Song> restoredQueue, int savedPosition) {
+        // the restored queue is the saved one without the ids of deleted songs, in the same order
+        int restoredPosition = 0;
+        for (int i = 0; i < savedPosition && restoredPosition < restoredQueue.size(); i++) {
+            if (restoredQueue.get(restoredPosition).id == savedQueueIds[i]) {
+                restoredPosition++;
+            }
+        }
+        return restoredPosition;
     }
 
     private void quit() {
@@ -471,6 +598,9 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     }
 
     private void releaseResources() {
+        // pending saves are dropped below, so write the latest state right away
+        PlaybackStateStore.getInstance(this).flush();
+        SongPlayCountStore.getInstance(this).flush();
         playerHandler.removeCallbacksAndMessages(null);
         if (Build.VERSION.SDK_INT >= 18) {
             musicPlayerHandlerThread.quitSafely();
@@ -503,21 +633,29 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     private boolean openTrackAndPrepareNextAt(int position) {
         synchronized (this) {
             this.position = position;
-            boolean prepared = openCurrent();
-            if (prepared) prepareNextImpl();
-            notifyChange(META_CHANGED);
-            notHandledMetaChangedForCurrentTrack = false;
-            return prepared;
         }
+        boolean prepared = openCurrent();
+        if (prepared) prepareNextImpl();
+        notifyChange(META_CHANGED);
+        notHandledMetaChangedForCurrentTrack = false;
+        return prepared;
     }
 
+    /**
+     * Only called on the playback thread. The player is opened without holding the lock,
+     * so the ui thread never waits for the file system.
+     */
     private boolean openCurrent() {
+        final String uri;
         synchronized (this) {
-            try {
-                return playback.setDataSource(getTrackUri(getCurrentSong()));
-            } catch (Exception e) {
-                return false;
-            }
+            uri = getTrackUri(getCurrentSong());
+        }
+        // the next track has to be linked to the new current one
+        invalidatePreparedNext();
+        try {
+            return playback.setDataSource(uri);
+        } catch (Exception e) {
+            return false;
         }
     }
 
@@ -526,17 +664,87 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         playerHandler.obtainMessage(PREPARE_NEXT).sendToTarget();
     }
 
+    /**
+     * Only called on the playback thread, see {@link #openCurrent()}.
+     */
     private boolean prepareNextImpl() {
+        final int nextPosition;
+        final String uri;
+        final String previousUri;
         synchronized (this) {
-            try {
-                int nextPosition = getNextPosition(false);
-                playback.setNextDataSource(getTrackUri(getSongAt(nextPosition)));
+            nextPosition = getNextPosition(false);
+            uri = getTrackUri(getSongAt(nextPosition));
+            // skipping back from the notification or the player always goes to the previous track
+            previousUri = getTrackUri(getSongAt(getPreviousPosition(true)));
+        }
+        if (uri.equals(preparedNextUri) && previousUri.equals(preparedPreviousUri)) {
+            // e.g. songs were added to the end of the queue, only the position of the next song might have moved
+            synchronized (this) {
                 this.nextPosition = nextPosition;
-                return true;
-            } catch (Exception e) {
-                return false;
+            }
+            skippedPrepareNextCount++;
+            if (BuildConfig.DEBUG) Log.d(TAG, "Next track did not change, skipped preparing it " + skippedPrepareNextCount + " times");
+            return true;
+        }
+        try {
+            playback.setNextDataSource(uri);
+            playback.setPreviousDataSource(previousUri);
+        } catch (Exception e) {
+            invalidatePreparedNext();
+            return false;
+        }
+        preparedNextUri = uri;
+        preparedPreviousUri = previousUri;
+        synchronized (this) {
+            this.nextPosition = nextPosition;
+            prefetchAlbumArt(nextPosition);
+        }
+        return true;
+    }
+
+    /**
+     * Loads the covers of the upcoming songs at the sizes of the notification, the widgets and the lock screen,
+     * so they are already in the memory cache when the songs start.
+     */
+    private void prefetchAlbumArt(int nextPosition) {
+        final List<Song> songs = new ArrayList<>(PREFETCH_ALBUM_ART_COUNT);
+        final int queueSize = playingQueue.size();
+        int position = nextPosition;
+        while (songs.size() < PREFETCH_ALBUM_ART_COUNT && position >= 0 && position < queueSize && position != getPosition()) {
+            songs.add(getSongAt(position));
+            position++;
+            if (position == queueSize && getRepeatMode() == REPEAT_MODE_ALL) {
+                position = 0;
             }
         }
+        if (songs.isEmpty()) return;
+
+        final boolean albumArtOnLockscreen = PreferenceUtil.getInstance(this).albumArtOnLockscreen();
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                final int albumArtSize = getAlbumArtSize();
+                for (Song song : songs) {
+                    if (playingNotification != null) {
+                        playingNotification.prefetchAlbumArt(song);
+                    }
+                    appWidgetBig.prefetchAlbumArt(MusicService.this, song);
+                    appWidgetClassic.prefetchAlbumArt(MusicService.this, song);
+                    appWidgetSmall.prefetchAlbumArt(MusicService.this, song);
+                    appWidgetCard.prefetchAlbumArt(MusicService.this, song);
+                    if (albumArtOnLockscreen) {
+                        createAlbumArtRequest(song)
+                                .priority(Priority.LOW)
+                                .preload(albumArtSize, albumArtSize);
+                    }
+                }
+            }
+        });
+    }
+
+    private void invalidatePreparedNext() {
+        preparedNextUri = null;
+        preparedPreviousUri = null;
     }
 
     private void closeAudioEffectSession() {
@@ -597,17 +805,12 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         }
 
         if (PreferenceUtil.getInstance(this).albumArtOnLockscreen()) {
-            final Point screenSize = Util.getScreenSize(MusicService.this);
-            final BitmapRequestBuilder<?, Bitmap> request = SongGlideRequest.Builder.from(Glide.with(MusicService.this), song)
-                    .checkIgnoreMediaStore(MusicService.this)
-                    .asBitmap().build();
-            if (PreferenceUtil.getInstance(this).blurredAlbumArt()) {
-                request.transform(new BlurTransformation.Builder(MusicService.this).build());
-            }
+            final int albumArtSize = getAlbumArtSize();
+            final BitmapRequestBuilder<?, Bitmap> request = createAlbumArtRequest(song);
             runOnUiThread(new Runnable() {
                 @Override
                 public void run() {
-                    request.into(new SimpleTarget<Bitmap>(screenSize.x, screenSize.y) {
+                    request.into(new SimpleTarget<Bitmap>(albumArtSize, albumArtSize) {
                         @Override
                         public void onLoadFailed(Exception e, Drawable errorDrawable) {
                             super.onLoadFailed(e, errorDrawable);
@@ -616,7 +819,8 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
 
                         @Override
                         public void onResourceReady(Bitmap resource, GlideAnimation<? super Bitmap> glideAnimation) {
-                            metaData.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, copy(resource));
+                            // detached bitmap, it is never recycled by Glide
+                            metaData.putBitmap(MediaMetadataCompat.METADATA_KEY_ALBUM_ART, resource);
                             mediaSession.setMetadata(metaData.build());
                         }
                     });
@@ -627,17 +831,25 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         }
     }
 
-    private static Bitmap copy(Bitmap bitmap) {
-        Bitmap.Config config = bitmap.getConfig();
-        if (config == null) {
-            config = Bitmap.Config.RGB_565;
-        }
-        try {
-            return bitmap.copy(config, false);
-        } catch (OutOfMemoryError e) {
-            e.printStackTrace();
-            return null;
+    /**
+     * The lock screen cover is loaded as a square of the larger screen dimension,
+     * so it does not have to be loaded and blurred again when the screen rotates.
+     */
+    private int getAlbumArtSize() {
+        final Point screenSize = Util.getScreenSize(this);
+        return Math.max(screenSize.x, screenSize.y);
+    }
+
+    @NonNull
+    private BitmapRequestBuilder<?, Bitmap> createAlbumArtRequest(@NonNull Song song) {
+        final BitmapRequestBuilder<?, Bitmap> request = SongGlideRequest.Builder.from(Glide.with(this), song)
+                .checkIgnoreMediaStore(this)
+                .asBitmap().detached().build();
+        if (PreferenceUtil.getInstance(this).blurredAlbumArt()) {
+            // the blurred result is kept in Glide's memory and result disk cache by cover signature and radius
+            request.transform(new BlurTransformation.Builder(this).build());
         }
+        return request;
     }
 
     public void runOnUiThread(Runnable runnable) {
@@ -701,9 +913,8 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
             case REPEAT_MODE_ALL:
             case REPEAT_MODE_THIS:
                 this.repeatMode = repeatMode;
-                PreferenceManager.getDefaultSharedPreferences(this).edit()
-                        .putInt(SAVED_REPEAT_MODE, repeatMode)
-                        .apply();
+                PlaybackStateStore.getInstance(this).setRepeatMode(repeatMode);
+                scheduleSavePlaybackState();
                 prepareNext();
                 handleAndSendChangeInternal(REPEAT_MODE_CHANGED);
                 break;
@@ -713,13 +924,14 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     public void openQueue(@Nullable final List<Song> playingQueue, final int startPosition, final boolean startPlaying) {
         if (playingQueue != null && !playingQueue.isEmpty() && startPosition >= 0 && startPosition < playingQueue.size()) {
             // it is important to copy the playing queue here first as we might add/remove songs later
-            originalPlayingQueue = new ArrayList<>(playingQueue);
-            this.playingQueue = new ArrayList<>(originalPlayingQueue);
+            originalPlayingQueue = new PlayingQueue(playingQueue);
 
             int position = startPosition;
             if (shuffleMode == SHUFFLE_MODE_SHUFFLE) {
-                ShuffleHelper.makeShuffleList(this.playingQueue, startPosition);
+                this.playingQueue = shuffle(originalPlayingQueue, startPosition);
                 position = 0;
+            } else {
+                this.playingQueue = new PlayingQueue(originalPlayingQueue);
             }
             if (startPlaying) {
                 playSongAt(position);
@@ -944,22 +1156,53 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         return playback.duration();
     }
 
+    /**
+     * @return the playback state as of the last change, safe to poll from the ui thread.
+     */
+    @NonNull
+    public PlaybackSnapshot getPlaybackSnapshot() {
+        return playbackSnapshot;
+    }
+
+    /**
+     * Called on the thread that changed the state, after the change.
+     */
+    private void publishPlaybackSnapshot() {
+        final Playback playback = this.playback;
+        if (playback == null) {
+            playbackSnapshot = PlaybackSnapshot.EMPTY;
+            return;
+        }
+        // the player is read first so its lock is never taken while holding the snapshot lock
+        final int progressMillis = playback.position();
+        final int durationMillis = playback.duration();
+        final boolean playing = playback.isPlaying();
+        synchronized (playbackSnapshotLock) {
+            PlayingQueue queue = playingQueue;
+            final PlaybackSnapshot previousSnapshot = playbackSnapshot;
+            // keep handing out the same copy while the queue is unchanged, so it can be recognized by identity
+            if (previousSnapshot.playingQueue instanceof PlayingQueue && ((PlayingQueue) previousSnapshot.playingQueue).isSameVersion(queue)) {
+                queue = (PlayingQueue) previousSnapshot.playingQueue;
+            } else {
+                queue = new PlayingQueue(queue);
+            }
+            playbackSnapshot = new PlaybackSnapshot(queue, position, queueVersion.get(), progressMillis, durationMillis, playing);
+        }
+    }
+
     public long getQueueDurationMillis(int position) {
-        long duration = 0;
-        for (int i = position + 1; i < playingQueue.size(); i++)
-            duration += playingQueue.get(i).duration;
-        return duration;
+        return playingQueue.getDurationMillis(position + 1);
     }
 
     public int seek(int millis) {
-        synchronized (this) {
-            try {
-                int newPosition = playback.seek(millis);
-                throttledSeekHandler.notifySeek();
-                return newPosition;
-            } catch (Exception e) {
-                return -1;
-            }
+        // the player keeps its own state, this does not need the lock of the service
+        try {
+            int newPosition = playback.seek(millis);
+            publishPlaybackSnapshot();
+            throttledSeekHandler.notifySeek();
+            return newPosition;
+        } catch (Exception e) {
+            return -1;
         }
     }
 
@@ -990,24 +1233,26 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     }
 
     public void setShuffleMode(final int shuffleMode) {
-        PreferenceManager.getDefaultSharedPreferences(this).edit()
-                .putInt(SAVED_SHUFFLE_MODE, shuffleMode)
-                .apply();
+        PlaybackStateStore.getInstance(this).setShuffleMode(shuffleMode);
+        scheduleSavePlaybackState();
         switch (shuffleMode) {
             case SHUFFLE_MODE_SHUFFLE:
                 this.shuffleMode = shuffleMode;
-                ShuffleHelper.makeShuffleList(this.getPlayingQueue(), getPosition());
+                playingQueue = shuffle(playingQueue, getPosition());
                 position = 0;
                 break;
             case SHUFFLE_MODE_NONE:
                 this.shuffleMode = shuffleMode;
                 long currentSongId = getCurrentSong().id;
-                playingQueue = new ArrayList<>(originalPlayingQueue);
+                playingQueue = new PlayingQueue(originalPlayingQueue);
                 int newPosition = 0;
-                for (Song song : getPlayingQueue()) {
+                int i = 0;
+                for (Song song : playingQueue) {
                     if (song.id == currentSongId) {
-                        newPosition = getPlayingQueue().indexOf(song);
+                        newPosition = i;
+                        break;
                     }
+                    i++;
                 }
                 position = newPosition;
                 break;
@@ -1016,6 +1261,14 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         notifyChange(QUEUE_CHANGED);
     }
 
+    // shuffling swaps songs all over the queue, that is cheaper on an array
+    @NonNull
+    private static PlayingQueue shuffle(@NonNull List<Song> queue, int current) {
+        final List<Song> shuffledQueue = new ArrayList<>(queue);
+        ShuffleHelper.makeShuffleList(shuffledQueue, current);
+        return new PlayingQueue(shuffledQueue);
+    }
+
     private void notifyChange(@NonNull final String what) {
         handleAndSendChangeInternal(what);
         sendPublicIntent(what);
@@ -1065,13 +1318,21 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
             | PlaybackStateCompat.ACTION_SEEK_TO;
 
     private void handleChangeInternal(@NonNull final String what) {
+        if (QUEUE_CHANGED.equals(what)) {
+            queueVersion.incrementAndGet();
+        }
+        publishPlaybackSnapshot();
         switch (what) {
             case PLAY_STATE_CHANGED:
                 updateNotification();
                 updateMediaSessionPlaybackState();
                 final boolean isPlaying = isPlaying();
-                if (!isPlaying && getSongProgressMillis() > 0) {
-                    savePositionInTrack();
+                if (!isPlaying) {
+                    if (getSongProgressMillis() > 0) {
+                        savePositionInTrack();
+                    }
+                    // paused or stopped, the process might get killed any time now
+                    flushPlaybackState();
                 }
                 songPlayCountHelper.notifyPlayStateChanged(isPlaying);
                 break;
@@ -1081,9 +1342,9 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
                 savePosition();
                 savePositionInTrack();
                 final Song currentSong = getCurrentSong();
-                HistoryStore.getInstance(this).addSongId(currentSong.id);
+                queueSaveHandler.obtainMessage(ADD_TO_HISTORY, currentSong.id).sendToTarget();
                 if (songPlayCountHelper.shouldBumpPlayCount()) {
-                    SongPlayCountStore.getInstance(this).bumpPlayCount(songPlayCountHelper.getSong().id);
+                    queueSaveHandler.obtainMessage(BUMP_PLAY_COUNT, songPlayCountHelper.getSong().id).sendToTarget();
                 }
                 songPlayCountHelper.notifySongChanged(currentSong);
                 break;
@@ -1121,11 +1382,9 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
     public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
         switch (key) {
             case PreferenceUtil.GAPLESS_PLAYBACK:
-                if (sharedPreferences.getBoolean(key, false)) {
-                    prepareNext();
-                } else {
-                    playback.setNextDataSource(null);
-                }
+                // the next track stays prepared either way, it is only linked for gapless playback
+                invalidatePreparedNext();
+                prepareNext();
                 break;
             case PreferenceUtil.ALBUM_ART_ON_LOCKSCREEN:
             case PreferenceUtil.BLURRED_ALBUM_ART:
@@ -1152,6 +1411,17 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
         playerHandler.sendEmptyMessage(TRACK_ENDED);
     }
 
+    @Override
+    public void onTrackFailed() {
+        notifyChange(PLAY_STATE_CHANGED);
+    }
+
+    @Override
+    public void onTrackPrepared() {
+        // the duration is known now and the progress starts advancing
+        publishPlaybackSnapshot();
+    }
+
     private static final class PlaybackHandler extends Handler {
         @NonNull
         private final WeakReference<MusicService> mService;
@@ -1209,6 +1479,8 @@ public class MusicService extends Service implements SharedPreferences.OnSharedP
                         }
                     } else {
                         service.position = service.nextPosition;
+                        // the next player became the current one
+                        service.invalidatePreparedNext();
                         service.prepareNextImpl();
                         service.notifyChange(META_CHANGED);
                     }
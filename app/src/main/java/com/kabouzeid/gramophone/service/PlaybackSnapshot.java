@@ -0,0 +1,55 @@
+package com.kabouzeid.gramophone.service;
+
+import android.os.SystemClock;
+import androidx.annotation.NonNull;
+
+import com.kabouzeid.gramophone.model.Song;
+
+import java.util.List;
+
+/**
+ * An immutable view of the playback state, published by the {@link MusicService} whenever the state changes.
+ * <p>
+ * Reading it takes no lock and does not touch the player, the progress is extrapolated from the time it was taken.
+ * The position always belongs to the playing queue of the same snapshot.
+ */
+public class PlaybackSnapshot {
+    public static final PlaybackSnapshot EMPTY = new PlaybackSnapshot(new PlayingQueue(), -1, 0, -1, -1, false);
+
+    // a copy that does not change anymore
+    @NonNull
+    public final List<Song> playingQueue;
+    public final int position;
+    @NonNull
+    public final Song song;
+    // incremented every time the playing queue changes
+    public final int queueVersion;
+    public final int durationMillis;
+    public final boolean playing;
+
+    private final int progressMillis;
+    // SystemClock.elapsedRealtime() at the time progressMillis was read from the player
+    private final long progressTime;
+
+    PlaybackSnapshot(@NonNull PlayingQueue playingQueue, int position, int queueVersion, int progressMillis, int durationMillis, boolean playing) {
+        this.playingQueue = playingQueue;
+        this.position = position;
+        this.song = position >= 0 && position < playingQueue.size() ? playingQueue.get(position) : Song.EMPTY_SONG;
+        this.queueVersion = queueVersion;
+        this.progressMillis = progressMillis;
+        this.progressTime = SystemClock.elapsedRealtime();
+        this.durationMillis = durationMillis;
+        this.playing = playing;
+    }
+
+    /**
+     * @return the current position in the song in milliseconds, or -1 if nothing is loaded.
+     */
+    public int getProgressMillis() {
+        // the duration is unknown while the track is still being prepared, it does not advance yet
+        if (!playing || progressMillis < 0 || durationMillis <= 0) {
+            return progressMillis;
+        }
+        return (int) Math.min(progressMillis + SystemClock.elapsedRealtime() - progressTime, durationMillis);
+    }
+}
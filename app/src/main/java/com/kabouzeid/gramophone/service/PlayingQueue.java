@@ -0,0 +1,354 @@
+package com.kabouzeid.gramophone.service;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.kabouzeid.gramophone.model.Song;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * A list of songs that can be edited at any position in logarithmic time and knows the duration of any part of it.
+ * <p>
+ * It is a persistent treap, every edit copies the nodes on its path and then replaces the root.
+ * Readers on other threads always see a complete version of the queue, and copying a queue is free.
+ */
+public class PlayingQueue extends AbstractList<Song> {
+    private static final Random random = new Random();
+
+    @Nullable
+    private volatile Node root;
+
+    public PlayingQueue() {
+    }
+
+    public PlayingQueue(@NonNull PlayingQueue queue) {
+        root = queue.root;
+    }
+
+    public PlayingQueue(@NonNull Collection<? extends Song> songs) {
+        root = build(songs);
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public Song get(int index) {
+        final Node node = root;
+        checkIndex(index, size(node));
+        return get(node, index);
+    }
+
+    @Override
+    public Song set(int index, Song song) {
+        final Node node = root;
+        checkIndex(index, size(node));
+        final Song previous = get(node, index);
+        root = set(node, index, song);
+        return previous;
+    }
+
+    @Override
+    public void add(int index, Song song) {
+        final Node node = root;
+        checkPositionIndex(index, size(node));
+        final Node[] parts = split(node, index);
+        root = merge(merge(parts[0], new Node(song, random.nextInt(), null, null)), parts[1]);
+        modCount++;
+    }
+
+    @Override
+    public boolean addAll(@NonNull Collection<? extends Song> songs) {
+        return addAll(size(), songs);
+    }
+
+    @Override
+    public boolean addAll(int index, @NonNull Collection<? extends Song> songs) {
+        final Node node = root;
+        checkPositionIndex(index, size(node));
+        if (songs.isEmpty()) return false;
+        final Node[] parts = split(node, index);
+        root = merge(merge(parts[0], build(songs)), parts[1]);
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public Song remove(int index) {
+        final Node node = root;
+        checkIndex(index, size(node));
+        final Node[] parts = split(node, index);
+        final Node[] rightParts = split(parts[1], 1);
+        root = merge(parts[0], rightParts[1]);
+        modCount++;
+        return rightParts[0].song;
+    }
+
+    // the iterator can't remove, so everything AbstractCollection implements on top of Iterator.remove() is done here
+
+    @Override
+    public boolean remove(Object song) {
+        final int index = indexOf(song);
+        if (index < 0) return false;
+        remove(index);
+        return true;
+    }
+
+    @Override
+    public boolean removeAll(@NonNull Collection<?> songs) {
+        return retain(songs, false);
+    }
+
+    @Override
+    public boolean retainAll(@NonNull Collection<?> songs) {
+        return retain(songs, true);
+    }
+
+    @Override
+    public int indexOf(Object song) {
+        int index = 0;
+        for (Song queuedSong : this) {
+            if (song == null ? queuedSong == null : song.equals(queuedSong)) {
+                return index;
+            }
+            index++;
+        }
+        return -1;
+    }
+
+    /**
+     * @return whether both queues are copies of the same version, without comparing the songs.
+     */
+    public boolean isSameVersion(@NonNull PlayingQueue queue) {
+        return root == queue.root;
+    }
+
+    @Override
+    public void clear() {
+        root = null;
+        modCount++;
+    }
+
+    /**
+     * @return the summed duration in milliseconds of the songs from fromIndex to the end of the queue.
+     */
+    public long getDurationMillis(int fromIndex) {
+        Node node = root;
+        final long duration = duration(node);
+        // sum up the songs before fromIndex on the way down
+        long skippedDuration = 0;
+        int remaining = fromIndex;
+        while (node != null && remaining > 0) {
+            final int leftSize = size(node.left);
+            if (remaining <= leftSize) {
+                node = node.left;
+            } else {
+                skippedDuration += duration(node.left) + node.song.duration;
+                remaining -= leftSize + 1;
+                node = node.right;
+            }
+        }
+        return duration - skippedDuration;
+    }
+
+    /**
+     * Iterates the queue as it was when the iterator was created, later edits don't affect it.
+     */
+    @NonNull
+    @Override
+    public Iterator<Song> iterator() {
+        return new Iterator<Song>() {
+            private final ArrayDeque<Node> path = new ArrayDeque<>();
+
+            {
+                pushLeft(root);
+            }
+
+            private void pushLeft(@Nullable Node node) {
+                while (node != null) {
+                    path.push(node);
+                    node = node.left;
+                }
+            }
+
+            @Override
+            public boolean hasNext() {
+                return !path.isEmpty();
+            }
+
+            @Override
+            public Song next() {
+                if (path.isEmpty()) throw new NoSuchElementException();
+                final Node node = path.pop();
+                pushLeft(node.right);
+                return node.song;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    private boolean retain(@NonNull Collection<?> songs, boolean keepContained) {
+        final List<Song> keptSongs = new ArrayList<>();
+        boolean changed = false;
+        for (Song song : this) {
+            if (songs.contains(song) == keepContained) {
+                keptSongs.add(song);
+            } else {
+                changed = true;
+            }
+        }
+        if (changed) {
+            root = build(keptSongs);
+            modCount++;
+        }
+        return changed;
+    }
+
+    private static void checkIndex(int index, int size) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static void checkPositionIndex(int index, int size) {
+        if (index < 0 || index > size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    private static int size(@Nullable Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static long duration(@Nullable Node node) {
+        return node == null ? 0 : node.duration;
+    }
+
+    private static Song get(@NonNull Node node, int index) {
+        while (true) {
+            final int leftSize = size(node.left);
+            if (index < leftSize) {
+                node = node.left;
+            } else if (index == leftSize) {
+                return node.song;
+            } else {
+                index -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    @NonNull
+    private static Node set(@NonNull Node node, int index, Song song) {
+        final int leftSize = size(node.left);
+        if (index < leftSize) {
+            return node.with(set(node.left, index, song), node.right);
+        } else if (index == leftSize) {
+            return new Node(song, node.priority, node.left, node.right);
+        } else {
+            return node.with(node.left, set(node.right, index - leftSize - 1, song));
+        }
+    }
+
+    /**
+     * @return the first count songs and the rest.
+     */
+    @NonNull
+    private static Node[] split(@Nullable Node node, int count) {
+        if (node == null) {
+            return new Node[]{null, null};
+        }
+        final int leftSize = size(node.left);
+        if (count <= leftSize) {
+            final Node[] parts = split(node.left, count);
+            return new Node[]{parts[0], node.with(parts[1], node.right)};
+        } else {
+            final Node[] parts = split(node.right, count - leftSize - 1);
+            return new Node[]{node.with(node.left, parts[0]), parts[1]};
+        }
+    }
+
+    @Nullable
+    private static Node merge(@Nullable Node left, @Nullable Node right) {
+        if (left == null) return right;
+        if (right == null) return left;
+        if (left.priority > right.priority) {
+            return left.with(left.left, merge(left.right, right));
+        } else {
+            return right.with(merge(left, right.left), right.right);
+        }
+    }
+
+    /**
+     * Builds a treap in linear time, the nodes are only linked up before they are published.
+     */
+    @Nullable
+    private static Node build(@NonNull Collection<? extends Song> songs) {
+        // the right spine of the tree built so far, the deepest node on top
+        final ArrayDeque<Node> spine = new ArrayDeque<>();
+        for (Song song : songs) {
+            final Node node = new Node(song, random.nextInt(), null, null);
+            Node lastPopped = null;
+            while (!spine.isEmpty() && spine.peek().priority < node.priority) {
+                lastPopped = spine.pop();
+            }
+            node.left = lastPopped;
+            if (!spine.isEmpty()) {
+                spine.peek().right = node;
+            }
+            spine.push(node);
+        }
+        final Node root = spine.peekLast();
+        update(root);
+        return root;
+    }
+
+    private static void update(@Nullable Node node) {
+        if (node == null) return;
+        update(node.left);
+        update(node.right);
+        node.update();
+    }
+
+    private static final class Node {
+        final Song song;
+        final int priority;
+        // only changed by build()
+        Node left;
+        Node right;
+        int size;
+        long duration;
+
+        Node(Song song, int priority, @Nullable Node left, @Nullable Node right) {
+            this.song = song;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            update();
+        }
+
+        @NonNull
+        Node with(@Nullable Node left, @Nullable Node right) {
+            return new Node(song, priority, left, right);
+        }
+
+        void update() {
+            size = size(left) + 1 + size(right);
+            duration = duration(left) + song.duration + duration(right);
+        }
+    }
+}
@@ -4,9 +4,16 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.os.Build;
+import androidx.annotation.NonNull;
 import androidx.annotation.RequiresApi;
 
+import com.bumptech.glide.BitmapRequestBuilder;
+import com.bumptech.glide.Glide;
+import com.bumptech.glide.Priority;
 import com.kabouzeid.gramophone.R;
+import com.kabouzeid.gramophone.glide.SongGlideRequest;
+import com.kabouzeid.gramophone.glide.palette.BitmapPaletteWrapper;
+import com.kabouzeid.gramophone.model.Song;
 import com.kabouzeid.gramophone.service.MusicService;
 
 import static android.content.Context.NOTIFICATION_SERVICE;
@@ -35,6 +42,27 @@ public abstract class PlayingNotification {
 
     public abstract void update();
 
+    /**
+     * Loads the cover of an upcoming song into the cache, so the notification can show it right away once the song starts.
+     */
+    public void prefetchAlbumArt(@NonNull Song song) {
+        final int size = getAlbumArtSize();
+        createAlbumArtRequest(song)
+                .priority(Priority.LOW)
+                .preload(size, size);
+    }
+
+    int getAlbumArtSize() {
+        return service.getResources().getDimensionPixelSize(R.dimen.notification_big_image_size);
+    }
+
+    @NonNull
+    BitmapRequestBuilder<?, BitmapPaletteWrapper> createAlbumArtRequest(@NonNull Song song) {
+        return SongGlideRequest.Builder.from(Glide.with(service), song)
+                .checkIgnoreMediaStore(service)
+                .generatePalette(service).build();
+    }
+
     public synchronized void stop() {
         stopped = true;
         service.stopForeground(true);
@@ -7,10 +7,15 @@ import androidx.annotation.Nullable;
  */
 public interface Playback {
 
+    /**
+     * @return true if the track is being prepared, it can be started and seeked before preparing finished.
+     */
     boolean setDataSource(String path);
 
     void setNextDataSource(@Nullable String path);
 
+    void setPreviousDataSource(@Nullable String path);
+
     void setCallbacks(PlaybackCallbacks callbacks);
 
     boolean isInitialized();
@@ -41,5 +46,9 @@ public interface Playback {
         void onTrackWentToNext();
 
         void onTrackEnded();
+
+        void onTrackFailed();
+
+        void onTrackPrepared();
     }
 }
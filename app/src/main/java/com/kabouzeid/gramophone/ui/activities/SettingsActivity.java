@@ -26,8 +26,13 @@ import com.kabouzeid.appthemehelper.common.prefs.supportv7.ATEColorPreference;
 import com.kabouzeid.appthemehelper.common.prefs.supportv7.ATEPreferenceFragmentCompat;
 import com.kabouzeid.appthemehelper.util.ColorUtil;
 import com.kabouzeid.gramophone.App;
+import com.kabouzeid.gramophone.BuildConfig;
 import com.kabouzeid.gramophone.R;
 import com.kabouzeid.gramophone.appshortcuts.DynamicShortcutManager;
+import com.kabouzeid.gramophone.glide.CountingBitmapPool;
+import com.kabouzeid.gramophone.glide.CountingDiskCache;
+import com.kabouzeid.gramophone.glide.CountingMemoryCache;
+import com.kabouzeid.gramophone.glide.PhonographGlideModule;
 import com.kabouzeid.gramophone.misc.NonProAllowedColors;
 import com.kabouzeid.gramophone.preferences.BlacklistPreference;
 import com.kabouzeid.gramophone.preferences.BlacklistPreferenceDialog;
@@ -35,6 +40,7 @@ import com.kabouzeid.gramophone.preferences.LibraryPreference;
 import com.kabouzeid.gramophone.preferences.LibraryPreferenceDialog;
 import com.kabouzeid.gramophone.preferences.NowPlayingScreenPreference;
 import com.kabouzeid.gramophone.preferences.NowPlayingScreenPreferenceDialog;
+import com.kabouzeid.gramophone.service.MultiPlayer;
 import com.kabouzeid.gramophone.ui.activities.base.AbsBaseActivity;
 import com.kabouzeid.gramophone.util.NavigationUtil;
 import com.kabouzeid.gramophone.util.PreferenceUtil;
@@ -148,6 +154,35 @@ public class SettingsActivity extends AbsBaseActivity implements ColorChooserDia
             }
         }
 
+        private void setImageCacheSizeSummary(@NonNull Preference preference, @NonNull Object value) {
+            setSummary(preference, value);
+            final float hitRate = CountingDiskCache.getHitRate();
+            if (hitRate >= 0) {
+                preference.setSummary(getString(R.string.pref_summary_image_cache_hit_rate, preference.getSummary(), Math.round(hitRate * 100)));
+            }
+            final int diskCacheSize = PhonographGlideModule.getDiskCacheSize();
+            if (diskCacheSize >= 0 && !String.valueOf(diskCacheSize / (1024 * 1024)).equals(value.toString())) {
+                preference.setSummary(getString(R.string.pref_summary_image_cache_size_restart, preference.getSummary()));
+            }
+        }
+
+        private void setImageMemoryUsageSummary(@NonNull Preference preference) {
+            preference.setSummary(getString(R.string.pref_summary_image_memory_usage,
+                    CountingMemoryCache.getOccupancy() / (1024 * 1024), CountingMemoryCache.getCapacity() / (1024 * 1024),
+                    Math.round(Math.max(0, CountingMemoryCache.getHitRate()) * 100),
+                    CountingBitmapPool.getOccupancy() / (1024 * 1024), CountingBitmapPool.getCapacity() / (1024 * 1024),
+                    Math.round(Math.max(0, CountingBitmapPool.getHitRate()) * 100)));
+        }
+
+        private void setSkipLatencySummary(@NonNull Preference preference) {
+            final long lastSkipLatency = MultiPlayer.getLastSkipLatency();
+            if (lastSkipLatency < 0) {
+                preference.setSummary(R.string.pref_summary_skip_latency_none);
+            } else {
+                preference.setSummary(getString(R.string.pref_summary_skip_latency, lastSkipLatency, MultiPlayer.getAverageSkipLatency()));
+            }
+        }
+
         @Override
         public void onCreatePreferences(Bundle bundle, String s) {
             addPreferencesFromResource(R.xml.pref_library);
@@ -159,6 +194,9 @@ public class SettingsActivity extends AbsBaseActivity implements ColorChooserDia
             addPreferencesFromResource(R.xml.pref_audio);
             addPreferencesFromResource(R.xml.pref_playlists);
             addPreferencesFromResource(R.xml.pref_blacklist);
+            if (BuildConfig.DEBUG) {
+                addPreferencesFromResource(R.xml.pref_debug);
+            }
         }
 
         @Nullable
@@ -220,6 +258,23 @@ public class SettingsActivity extends AbsBaseActivity implements ColorChooserDia
                 return true;
             });
 
+            final Preference imageCacheSize = findPreference("image_cache_size");
+            setImageCacheSizeSummary(imageCacheSize, PreferenceUtil.getInstance(getActivity()).getImageCacheSize() / (1024 * 1024));
+            imageCacheSize.setOnPreferenceChangeListener((preference, o) -> {
+                setImageCacheSizeSummary(imageCacheSize, o);
+                return true;
+            });
+
+            final Preference imageMemoryUsage = findPreference("image_memory_usage");
+            // only there in debug builds
+            if (imageMemoryUsage != null) {
+                setImageMemoryUsageSummary(imageMemoryUsage);
+                imageMemoryUsage.setOnPreferenceClickListener(preference -> {
+                    setImageMemoryUsageSummary(imageMemoryUsage);
+                    return true;
+                });
+            }
+
             final ATEColorPreference primaryColorPref = (ATEColorPreference) findPreference("primary_color");
             final int primaryColor = ThemeStore.primaryColor(getActivity());
             primaryColorPref.setColor(primaryColor, ColorUtil.darkenColor(primaryColor));
@@ -310,6 +365,16 @@ public class SettingsActivity extends AbsBaseActivity implements ColorChooserDia
                 return true;
             });
 
+            final Preference skipLatency = findPreference("skip_latency");
+            // only there in debug builds
+            if (skipLatency != null) {
+                setSkipLatencySummary(skipLatency);
+                skipLatency.setOnPreferenceClickListener(preference -> {
+                    setSkipLatencySummary(skipLatency);
+                    return true;
+                });
+            }
+
             updateNowPlayingScreenSummary();
         }
 
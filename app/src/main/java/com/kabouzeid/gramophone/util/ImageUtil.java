@@ -15,7 +15,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.vectordrawable.graphics.drawable.VectorDrawableCompat;
 
-import java.io.InputStream;
+import java.io.File;
 
 import com.kabouzeid.appthemehelper.util.TintHelper;
 
@@ -113,9 +113,48 @@ public class ImageUtil {
         return drawable;
     }
 
-    public static Bitmap resize(InputStream stream, int scaledWidth, int scaledHeight) {
-        final Bitmap bitmap = BitmapFactory.decodeStream(stream);
-        return Bitmap.createScaledBitmap(bitmap, scaledWidth, scaledHeight, true);
+    /**
+     * Reads only the header of the image and returns the sample size to decode it at, so it is still at least {@code reqSize} pixels in each dimension.
+     *
+     * @return the sample size, or 0 if the data is not an image.
+     */
+    public static int calculateInSampleSize(@NonNull byte[] data, int reqSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return 0;
+        return calculateInSampleSize(options.outWidth, options.outHeight, reqSize);
+    }
+
+    public static int calculateInSampleSize(@NonNull File file, int reqSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) return 0;
+        return calculateInSampleSize(options.outWidth, options.outHeight, reqSize);
+    }
+
+    /**
+     * Decodes the image straight at a size close to {@code reqSize}, the image is never decoded at its full size.
+     */
+    @Nullable
+    public static Bitmap decodeSampledBitmap(@NonNull byte[] data, int reqSize) {
+        final int inSampleSize = calculateInSampleSize(data, reqSize);
+        if (inSampleSize == 0) return null;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    }
 
+    /**
+     * @see #decodeSampledBitmap(byte[], int)
+     */
+    @Nullable
+    public static Bitmap decodeSampledBitmap(@NonNull File file, int reqSize) {
+        final int inSampleSize = calculateInSampleSize(file, reqSize);
+        if (inSampleSize == 0) return null;
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = inSampleSize;
+        return BitmapFactory.decodeFile(file.getPath(), options);
     }
 }
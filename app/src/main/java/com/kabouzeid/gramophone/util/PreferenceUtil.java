@@ -64,6 +64,7 @@ public final class PreferenceUtil {
     public static final String GAPLESS_PLAYBACK = "gapless_playback";
 
     public static final String LAST_ADDED_CUTOFF = "last_added_interval";
+    public static final String HISTORY_SIZE = "history_size";
 
     public static final String ALBUM_ART_ON_LOCKSCREEN = "album_art_on_lockscreen";
     public static final String BLURRED_ALBUM_ART = "blurred_album_art";
@@ -78,6 +79,7 @@ public final class PreferenceUtil {
     public static final String INTRO_SHOWN = "intro_shown";
 
     public static final String AUTO_DOWNLOAD_IMAGES_POLICY = "auto_download_images_policy";
+    public static final String IMAGE_CACHE_SIZE = "image_cache_size";
 
     public static final String START_DIRECTORY = "start_directory";
 
@@ -285,6 +287,14 @@ public final class PreferenceUtil {
         return mPreferences.getString(GENRE_SORT_ORDER, SortOrder.GenreSortOrder.GENRE_A_Z);
     }
 
+    public int getHistorySize() {
+        try {
+            return Math.max(1, Integer.parseInt(mPreferences.getString(HISTORY_SIZE, "100")));
+        } catch (NumberFormatException e) {
+            return 100;
+        }
+    }
+
     public long getLastAddedCutoff() {
         final CalendarUtil calendarUtil = new CalendarUtil();
         long interval;
@@ -475,6 +485,19 @@ public final class PreferenceUtil {
         return mPreferences.getString(AUTO_DOWNLOAD_IMAGES_POLICY, "only_wifi");
     }
 
+    /**
+     * @return the maximum size of the image disk cache in bytes.
+     */
+    public final int getImageCacheSize() {
+        int megabytes;
+        try {
+            megabytes = Integer.parseInt(mPreferences.getString(IMAGE_CACHE_SIZE, "250"));
+        } catch (NumberFormatException e) {
+            megabytes = 250;
+        }
+        return megabytes * 1024 * 1024;
+    }
+
     public final File getStartDirectory() {
         return new File(mPreferences.getString(START_DIRECTORY, FoldersFragment.getDefaultStartDirectory().getPath()));
     }